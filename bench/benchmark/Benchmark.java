@@ -0,0 +1,52 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package benchmark;
+
+/**
+ * A point-scale benchmark: one operation is one call of the component on one
+ * time step of the synthetic {@link Forcing}.
+ */
+public abstract class Benchmark {
+
+	/** The name of the benchmark, stable between the versions so the results can be compared */
+	final String name;
+
+	/**
+	 * @param name is the name of the benchmark
+	 */
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the name of the benchmark
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Run one operation on a time step of the forcing.
+	 *
+	 * @param step is the time step of the forcing, in [0, {@link Forcing#size()})
+	 * @return a value depending on the outputs, consumed by the harness so the JIT cannot drop the call
+	 * @throws Exception
+	 */
+	public abstract double run(int step) throws Exception;
+
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package benchmark;
+
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * A synthetic hourly forcing of one year at a mid-latitude alpine station: seasonal and daily
+ * cycles of the temperature, humidity anti-correlated with the temperature, intermittent
+ * precipitation from a two states Markov chain and the shortwave radiation of a sinusoidal
+ * sun attenuated by a random clearness index.
+ * <p>
+ * The series are generated from a fixed seed, so all the runs and all the versions
+ * of the components see the same values.
+ */
+public final class Forcing {
+
+	/** The latitude of the station [rad] */
+	public static final double LATITUDE = Math.toRadians(46.5);
+
+	/** The elevation of the station [m] */
+	public static final double ELEVATION = 1200;
+
+	/** The skyview factor of the station */
+	public static final double SKYVIEW = 0.9;
+
+	/** The instants of the time steps [ms] */
+	public final long[] time;
+
+	/** The time steps formatted as in the components, yyyy-MM-dd HH:mm */
+	public final String[] date;
+
+	/** The air temperature [°C] */
+	public final double[] airTemperature;
+
+	/** The soil temperature [°C] */
+	public final double[] soilTemperature;
+
+	/** The relative humidity [%] */
+	public final double[] humidity;
+
+	/** The precipitation [mm] */
+	public final double[] precipitation;
+
+	/** The clearness index [-] */
+	public final double[] clearnessIndex;
+
+	/** The radiation at the top of the atmosphere [W/m2] */
+	public final double[] topATM;
+
+	/** The measured shortwave radiation [W/m2] */
+	public final double[] shortwave;
+
+	/** The clear sky direct radiation [W/m2] */
+	public final double[] direct;
+
+	/** The clear sky diffuse radiation [W/m2] */
+	public final double[] diffuse;
+
+	/** The energy index of the Cazorzi model */
+	public final double[] energyIndex;
+
+
+	/**
+	 * @param seed is the seed of the random generator
+	 */
+	public Forcing(long seed) {
+		int n = 365 * 24;
+		time = new long[n];
+		date = new String[n];
+		airTemperature = new double[n];
+		soilTemperature = new double[n];
+		humidity = new double[n];
+		precipitation = new double[n];
+		clearnessIndex = new double[n];
+		topATM = new double[n];
+		shortwave = new double[n];
+		direct = new double[n];
+		diffuse = new double[n];
+		energyIndex = new double[n];
+
+		Random random = new Random(seed);
+		DateTimeFormatter formatter = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm").withZone(DateTimeZone.UTC);
+		long start = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+		boolean wet = false;
+		double clearness = 0.7;
+		for (int i = 0; i < n; i++) {
+			int day = i / 24;
+			int hour = i % 24;
+			time[i] = start + i * 3600000L;
+			date[i] = formatter.print(time[i]);
+
+			double season = -Math.cos(2 * Math.PI * (day - 15) / 365.0);
+			double daily = Math.sin(2 * Math.PI * (hour - 9) / 24.0);
+			airTemperature[i] = 5 + 10 * season + 5 * daily + 1.5 * random.nextGaussian();
+			soilTemperature[i] = 6 + 8 * season + 2 * daily;
+			humidity[i] = Math.max(20, Math.min(100, 70 - 15 * daily + 8 * random.nextGaussian()));
+
+			wet = wet ? random.nextDouble() < 0.75 : random.nextDouble() < 0.06;
+			precipitation[i] = wet ? -2 * Math.log(1 - random.nextDouble()) : 0;
+			clearness = Math.max(0.15, Math.min(0.8, clearness + 0.05 * random.nextGaussian() - (wet ? 0.05 : 0)));
+			clearnessIndex[i] = clearness;
+
+			// the sun over the station, without the refinements of the clear sky model
+			double declination = Math.toRadians(23.45) * Math.sin(2 * Math.PI * (284 + day) / 365.0);
+			double cosZenith = Math.sin(LATITUDE) * Math.sin(declination)
+					+ Math.cos(LATITUDE) * Math.cos(declination) * Math.cos((hour + 0.5 - 12) * Math.PI / 12);
+			topATM[i] = Math.max(0, 1370 * cosZenith);
+			shortwave[i] = clearness * topATM[i];
+			direct[i] = 0.75 * topATM[i] * Math.pow(0.7, 1 / Math.max(cosZenith, 0.05)) * ((cosZenith > 0) ? 1 : 0);
+			diffuse[i] = 0.15 * topATM[i];
+			energyIndex[i] = 1 + 5 * Math.max(0, cosZenith);
+		}
+	}
+
+	/**
+	 * @return the number of time steps
+	 */
+	public int size() {
+		return time.length;
+	}
+
+}
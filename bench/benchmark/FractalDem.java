@@ -0,0 +1,159 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package benchmark;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A synthetic fractal DEM: a fractional Brownian surface obtained summing octaves of value
+ * noise, each one with half the wavelength and a fraction of the amplitude of the previous one.
+ * <p>
+ * The elevation of a cell depends only on its position and on the seed, so a DEM of any size
+ * is generated row by row in parallel, without the power of two grids of the midpoint
+ * displacement, and the same seed always gives the same terrain. The DEM is a float raster,
+ * to keep the largest DEMs of the benchmarks in the heap.
+ */
+public final class FractalDem {
+
+	/** The number of rows below which a task is not split further */
+	private static final int ROWS_PER_TASK = 16;
+
+	/** The wavelength of the first octave [cells] */
+	private static final int FIRST_WAVELENGTH = 1024;
+
+	/** The elevation range of the first octave [m] */
+	private static final double RELIEF = 1500;
+
+	/** The ratio of the amplitudes of two successive octaves, 2^-H with H the Hurst exponent */
+	private static final double PERSISTENCE = Math.pow(2, -0.8);
+
+	private FractalDem() {
+	}
+
+	/**
+	 * Generate a DEM.
+	 *
+	 * @param cols is the number of columns
+	 * @param rows is the number of rows
+	 * @param seed is the seed of the terrain
+	 * @param threads is the number of threads
+	 * @return the raster of the elevation [m]
+	 */
+	public static WritableRaster generate(int cols, int rows, long seed, int threads) {
+		WritableRaster demWR = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_FLOAT, cols, rows, 1), null);
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			pool.invoke(new DemTask(demWR, seed, 0, rows));
+		} finally {
+			pool.shutdown();
+		}
+		return demWR;
+	}
+
+	/**
+	 * @return the elevation of the point (x, y), in cells
+	 */
+	static double elevation(double x, double y, long seed) {
+		double z = 2000;
+		double amplitude = RELIEF;
+		int octave = 0;
+		for (double wavelength = FIRST_WAVELENGTH; wavelength >= 2; wavelength /= 2) {
+			z += amplitude * noise(x / wavelength, y / wavelength, seed + octave);
+			amplitude *= PERSISTENCE;
+			octave++;
+		}
+		return z;
+	}
+
+	/**
+	 * @return the value noise in [-1, 1] at the point (x, y) of the lattice
+	 */
+	private static double noise(double x, double y, long seed) {
+		long ix = (long) Math.floor(x);
+		long iy = (long) Math.floor(y);
+		double fx = fade(x - ix);
+		double fy = fade(y - iy);
+		double a = lattice(ix, iy, seed);
+		double b = lattice(ix + 1, iy, seed);
+		double c = lattice(ix, iy + 1, seed);
+		double d = lattice(ix + 1, iy + 1, seed);
+		return a + fx * (b - a) + fy * (c - a) + fx * fy * (a - b - c + d);
+	}
+
+	/**
+	 * @return the quintic smoothing of the position in a lattice cell
+	 */
+	private static double fade(double t) {
+		return t * t * t * (t * (t * 6 - 15) + 10);
+	}
+
+	/**
+	 * @return the random value in [-1, 1] of a node of the lattice
+	 */
+	private static double lattice(long ix, long iy, long seed) {
+		long h = seed * 0x9E3779B97F4A7C15L + ix * 0xC2B2AE3D27D4EB4FL + iy * 0x165667B19E3779F9L;
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		h ^= h >>> 31;
+		return (h >>> 11) * 0x1.0p-52 - 1;
+	}
+
+
+	/**
+	 * The task generating a block of rows: the block is split in two
+	 * halves until it is smaller than {@link #ROWS_PER_TASK}.
+	 */
+	private static class DemTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final WritableRaster demWR;
+		final long seed;
+		final int firstRow;
+		final int lastRow;
+
+		DemTask(WritableRaster demWR, long seed, int firstRow, int lastRow) {
+			this.demWR = demWR;
+			this.seed = seed;
+			this.firstRow = firstRow;
+			this.lastRow = lastRow;
+		}
+
+		@Override
+		protected void compute() {
+			if (lastRow - firstRow > ROWS_PER_TASK) {
+				int middle = (firstRow + lastRow) >>> 1;
+				invokeAll(new DemTask(demWR, seed, firstRow, middle), new DemTask(demWR, seed, middle, lastRow));
+				return;
+			}
+			float[] row = new float[demWR.getWidth()];
+			for (int r = firstRow; r < lastRow; r++) {
+				for (int c = 0; c < row.length; c++) {
+					row[c] = (float) elevation(c, r, seed);
+				}
+				demWR.setSamples(0, r, row.length, 1, 0, row);
+			}
+		}
+	}
+
+}
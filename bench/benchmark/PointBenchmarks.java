@@ -0,0 +1,209 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The benchmarks of the point-scale components, run one after the other on the
+ * synthetic {@link Forcing}.
+ * <p>
+ * Each benchmark is warmed up and then measured in timed iterations: the results are the
+ * mean time per operation with its standard deviation over the iterations, the bytes
+ * allocated per operation (from the allocation counter of the thread, as the gc profiler
+ * of JMH) and the collections during the measurement. The results are written as CSV,
+ * one line per benchmark, and can be compared with the results of another version.
+ * <p>
+ * The benchmarks are in the bench source folder, in the packages of the components so
+ * they can set their inputs: compile it together with src and run
+ * <code>java benchmark.PointBenchmarks [-o results.csv] [-f regex] [-w warmups]
+ * [-i iterations] [-t millis] [-c baseline.csv]</code>, where -f selects the benchmarks
+ * by name and -c prints the change of each benchmark against older results.
+ */
+public class PointBenchmarks {
+
+	/** The header of the CSV results */
+	static final String HEADER = "benchmark,iterations,ns_per_op,ns_per_op_stdev,bytes_per_op,gc_count,gc_ms";
+
+	/** The value consumed from each operation, published so the JIT cannot drop the calls */
+	static volatile double sink;
+
+	/** The allocation counter of the threads */
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+
+	public static void main(String[] args) throws Exception {
+		File output = null;
+		File baseline = null;
+		Pattern filter = Pattern.compile(".*");
+		int warmups = 5;
+		int iterations = 10;
+		long millis = 500;
+		for (int a = 0; a < args.length; a++) {
+			if (args[a].equals("-o")) output = new File(args[++a]);
+			else if (args[a].equals("-c")) baseline = new File(args[++a]);
+			else if (args[a].equals("-f")) filter = Pattern.compile(args[++a]);
+			else if (args[a].equals("-w")) warmups = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-i")) iterations = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-t")) millis = Long.parseLong(args[++a]);
+			else throw new IllegalArgumentException("Unknown option: " + args[a]);
+		}
+
+		Forcing forcing = new Forcing(42);
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.addAll(swrb.SwrbBenchmarks.benchmarks(forcing));
+		benchmarks.addAll(lwrb.LwrbBenchmarks.benchmarks(forcing));
+		benchmarks.addAll(snowMelting.SnowMeltingBenchmarks.benchmarks(forcing));
+		benchmarks.addAll(rainSnowSperataion.RainSnowSeparationBenchmarks.benchmarks(forcing));
+		benchmarks.addAll(clearnessIndex.ClearnessIndexBenchmarks.benchmarks(forcing));
+		benchmarks.addAll(decompositionModels.DecompositionModelsBenchmarks.benchmarks(forcing));
+
+		PrintStream csv = (output == null) ? System.out : new PrintStream(output, "UTF-8");
+		try {
+			csv.println("# java " + System.getProperty("java.version") + ", " + System.getProperty("os.arch") + ", "
+					+ Runtime.getRuntime().availableProcessors() + " processors");
+			csv.println(HEADER);
+			Map<String, Double> reference = (baseline == null) ? null : read(baseline);
+			for (Benchmark benchmark : benchmarks) {
+				if (!filter.matcher(benchmark.getName()).find()) {
+					continue;
+				}
+				String line = measure(benchmark, forcing.size(), warmups, iterations, millis);
+				csv.println(line);
+				csv.flush();
+				if (reference != null) {
+					Double old = reference.get(benchmark.getName());
+					double now = Double.parseDouble(line.split(",")[2]);
+					System.err.println(String.format(Locale.ROOT, "%-50s %10.1f ns/op %s", benchmark.getName(), now,
+							(old == null) ? "(new)" : String.format(Locale.ROOT, "%+.1f%%", 100 * (now / old - 1))));
+				} else if (output != null) {
+					System.err.println(line);
+				}
+			}
+		} finally {
+			if (output != null) {
+				csv.close();
+			}
+		}
+	}
+
+	/**
+	 * Warm up and measure a benchmark.
+	 *
+	 * @return the line of the CSV results
+	 */
+	static String measure(Benchmark benchmark, int steps, int warmups, int iterations, long millis) throws Exception {
+		long threadId = Thread.currentThread().getId();
+		double[] nanosPerOp = new double[iterations];
+		long totalOps = 0;
+		long totalBytes = 0;
+		long gcCount = 0;
+		long gcMillis = 0;
+		int step = 0;
+		for (int it = -warmups; it < iterations; it++) {
+			long gcCount0 = gcCount();
+			long gcMillis0 = gcMillis();
+			long bytes0 = THREADS.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			long deadline = start + millis * 1000000L;
+			long ops = 0;
+			double consumed = 0;
+			long now;
+			do {
+				// a batch of operations between two reads of the clock
+				for (int b = 0; b < 256; b++) {
+					consumed += benchmark.run(step);
+					step = (step + 1 == steps) ? 0 : step + 1;
+				}
+				ops += 256;
+				now = System.nanoTime();
+			} while (now < deadline);
+			long bytes = THREADS.getThreadAllocatedBytes(threadId) - bytes0;
+			sink = consumed;
+			if (it >= 0) {
+				nanosPerOp[it] = (double) (now - start) / ops;
+				totalOps += ops;
+				totalBytes += bytes;
+				gcCount += gcCount() - gcCount0;
+				gcMillis += gcMillis() - gcMillis0;
+			}
+		}
+
+		double mean = 0;
+		for (double value : nanosPerOp) mean += value / iterations;
+		double variance = 0;
+		for (double value : nanosPerOp) variance += (value - mean) * (value - mean) / Math.max(1, iterations - 1);
+		return String.format(Locale.ROOT, "%s,%d,%.2f,%.2f,%.1f,%d,%d", benchmark.getName(), iterations, mean,
+				Math.sqrt(variance), (double) totalBytes / totalOps, gcCount, gcMillis);
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	/**
+	 * Read the time per operation of the benchmarks from CSV results.
+	 *
+	 * @param file is the file of the results
+	 * @return the ns/op by benchmark name
+	 * @throws IOException
+	 */
+	static Map<String, Double> read(File file) throws IOException {
+		Map<String, Double> results = new HashMap<String, Double>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#") || line.equals(HEADER) || line.isEmpty()) {
+					continue;
+				}
+				String[] fields = line.split(",");
+				results.put(fields[0], Double.parseDouble(fields[2]));
+			}
+		} finally {
+			reader.close();
+		}
+		return results;
+	}
+
+}
@@ -0,0 +1,46 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package clearnessIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import benchmark.Benchmark;
+import benchmark.Forcing;
+
+/**
+ * The benchmark of the clearness index of a station.
+ */
+public class ClearnessIndexBenchmarks {
+
+	public static List<Benchmark> benchmarks(final Forcing forcing) {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		final ClearnessIndexPointCase component = new ClearnessIndexPointCase();
+		benchmarks.add(new Benchmark("clearnessIndex.ClearnessIndexPointCase.process") {
+			@Override
+			public double run(int step) throws Exception {
+				component.SWRBMeasured = forcing.shortwave[step];
+				component.SWRBTopATM = forcing.topATM[step];
+				component.process();
+				return component.clearnessIndex;
+			}
+		});
+		return benchmarks;
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package decompositionModels;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import benchmark.Benchmark;
+import benchmark.Forcing;
+
+/**
+ * The benchmarks of the decomposition of the measured shortwave radiation, one for each model.
+ */
+public class DecompositionModelsBenchmarks {
+
+	public static List<Benchmark> benchmarks(final Forcing forcing) {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (String model : new String[] { "Erbs", "Reindl", "Boland" }) {
+			final DecompositionModels component = new DecompositionModels();
+			component.model = model;
+			benchmarks.add(new Benchmark("decompositionModels.DecompositionModels.process." + model) {
+				@Override
+				public double run(int step) throws Exception {
+					component.clearnessIndex = forcing.clearnessIndex[step];
+					component.SWRBMeasured = forcing.shortwave[step];
+					component.SWRBdirect = forcing.direct[step];
+					component.SWRBdiffuse = forcing.diffuse[step];
+					component.process();
+					return component.SWRBallSky;
+				}
+			});
+		}
+		return benchmarks;
+	}
+
+}
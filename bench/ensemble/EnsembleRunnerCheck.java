@@ -0,0 +1,149 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ensemble;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import lwrb.Lwrb;
+import rainSnowSperataion.RainSnowSeparation;
+import snowMelting.SnowMelting;
+import swrb.ShortwaveRadiationBalance;
+
+/**
+ * The check of a station run in chunks by the {@link EnsembleRunner}: the series is run once
+ * as a whole and once in a chunk of {@link #FIRST_CHUNK} time steps followed by a shorter
+ * one, as the last chunk read by a {@link ForcingReader}, with the whole chain of components.
+ * The outputs of the chunks must be the same of the whole run.
+ * <p>
+ * <code>java -cp &lt;classes of src and bench&gt; ensemble.EnsembleRunnerCheck</code>.
+ * The exit status is 1 if a check fails.
+ */
+public class EnsembleRunnerCheck {
+
+	/** The time steps of the chunks */
+	private static final int FIRST_CHUNK = 100, SECOND_CHUNK = 50;
+
+	/** The hourly time step [ms] */
+	private static final long HOUR = 3600000L;
+
+
+	public static void main(String[] args) {
+		int n = FIRST_CHUNK + SECOND_CHUNK;
+		Random random = new Random(3);
+		long[] time = new long[n];
+		double[] airTemperature = new double[n];
+		double[] humidity = new double[n];
+		double[] precipitation = new double[n];
+		for (int i = 0; i < n; i++) {
+			// hourly steps from the 1st of March 2010
+			time[i] = 1267401600000L + i * HOUR;
+			airTemperature[i] = -2 + 6 * Math.sin(2 * Math.PI * (i % 24) / 24) + random.nextGaussian();
+			humidity[i] = 50 + 40 * random.nextDouble();
+			precipitation[i] = (random.nextDouble() < 0.3) ? 3 * random.nextDouble() : 0;
+		}
+
+		EnsembleRunner runner = runner();
+		Station whole = station(time, airTemperature, humidity, precipitation, 0, n);
+		runner.run(whole);
+
+		Station chunks = station(time, airTemperature, humidity, precipitation, 0, FIRST_CHUNK);
+		double[][] outputs = new double[Station.OUTPUTS.length][n];
+		int failures = 0;
+		for (int[] chunk : new int[][] { { 0, FIRST_CHUNK }, { FIRST_CHUNK, n } }) {
+			chunks.time = Arrays.copyOfRange(time, chunk[0], chunk[1]);
+			chunks.airTemperature = Arrays.copyOfRange(airTemperature, chunk[0], chunk[1]);
+			chunks.humidity = Arrays.copyOfRange(humidity, chunk[0], chunk[1]);
+			chunks.precipitation = Arrays.copyOfRange(precipitation, chunk[0], chunk[1]);
+			try {
+				runner.run(chunks);
+			} catch (RuntimeException e) {
+				System.out.println(String.format(Locale.ROOT, "chunk of %d steps: %s FAILED", chunk[1] - chunk[0], e));
+				failures++;
+				break;
+			}
+			for (int k = 0; k < Station.OUTPUTS.length; k++) {
+				System.arraycopy(chunks.output(Station.OUTPUTS[k]), 0, outputs[k], chunk[0], chunk[1] - chunk[0]);
+			}
+		}
+
+		if (failures == 0) {
+			for (int k = 0; k < Station.OUTPUTS.length; k++) {
+				double[] expected = whole.output(Station.OUTPUTS[k]);
+				boolean passed = Arrays.equals(expected, outputs[k]);
+				if (!passed) failures++;
+				System.out.println(String.format(Locale.ROOT, "%-16s %s", Station.OUTPUTS[k], passed ? "ok" : "FAILED"));
+			}
+		}
+		System.out.println((failures == 0) ? "all checks passed" : failures + " checks failed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return a runner of the whole chain of components
+	 */
+	private static EnsembleRunner runner() {
+		EnsembleRunner runner = new EnsembleRunner();
+		runner.pThreads = 1;
+
+		runner.shortwave = new ShortwaveRadiationBalance();
+		runner.shortwave.pCmO3 = 0.6;
+		runner.shortwave.pVisibility = 80;
+		runner.shortwave.pAlphag = 0.9;
+
+		runner.rainSnowSeparation = new RainSnowSeparation();
+		runner.rainSnowSeparation.alfa_r = 1.1;
+		runner.rainSnowSeparation.alfa_s = 0.9;
+		runner.rainSnowSeparation.meltingTemperature = 0.5;
+
+		runner.snowMelting = new SnowMelting();
+		runner.snowMelting.model = "Hoock";
+		runner.snowMelting.meltingTemperature = 0;
+		runner.snowMelting.combinedMeltingFactor = 0.1;
+		runner.snowMelting.radiationFactor = 0.001;
+		runner.snowMelting.freezingFactor = 0.01;
+		runner.snowMelting.alfa_l = 0.1;
+
+		runner.lwrb = new Lwrb();
+		runner.lwrb.model = "1";
+		runner.lwrb.X = 0.618;
+		runner.lwrb.Y = 0.056;
+		runner.lwrb.epsilonS = 0.98;
+		runner.lwrb.A_Cloud = 0.17;
+		runner.lwrb.B_Cloud = 2;
+		return runner;
+	}
+
+	/**
+	 * @return a station with the forcing of the time steps from first to last
+	 */
+	private static Station station(long[] time, double[] airTemperature, double[] humidity,
+			double[] precipitation, int first, int last) {
+		Station station = new Station("check", Math.toRadians(46.5), 1500, 0.9);
+		station.time = Arrays.copyOfRange(time, first, last);
+		station.airTemperature = Arrays.copyOfRange(airTemperature, first, last);
+		station.humidity = Arrays.copyOfRange(humidity, first, last);
+		station.precipitation = Arrays.copyOfRange(precipitation, first, last);
+		station.setSnowpack(50, 0);
+		return station;
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lwrb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * The equivalence check of the batch {@link LongwaveKernels} with the point formulas of {@link Lwrb}:
+ * the vapour pressure, the clear sky emissivity of the models 1 to 5, the upwelling and the
+ * downwelling are computed by each implementation on random inputs with NaN values in all the
+ * arrays, over ranges which do not start or end at a multiple of the vector width, and compared
+ * with the point formulas. The NaN outputs must be the same and the other outputs must agree
+ * within {@link #TOLERANCE}; the cells outside the ranges must not be written. The kernels
+ * must also reject the models without a batch kernel.
+ * <p>
+ * The Vector API kernels are checked if their class is on the class path and the module is enabled:
+ * <code>java --add-modules jdk.incubator.vector -cp &lt;classes of src, bench and vector&gt;
+ * lwrb.LongwaveKernelsCheck</code>. The exit status is 1 if a check fails.
+ */
+public class LongwaveKernelsCheck {
+
+	/** The largest relative difference accepted between the kernels and the point formulas */
+	static final double TOLERANCE = 1e-13;
+
+	/** The parameters X, Y and Z of the models 1 to 5 */
+	private static final double[][] PARAMETERS = { { 0.618, 0.056, 0 }, { 0.261, -7.77, 0 },
+			{ 0.70, 5.95, 0 }, { -119, 1.06, 0 }, { 59.38, 113.7, 96.96 } };
+
+	private static final double A_CLOUD = 0.17;
+	private static final double B_CLOUD = 2;
+
+	/** The number of cells of the arrays */
+	private static final int CELLS = 10007;
+
+
+	public static void main(String[] args) {
+		List<LongwaveKernels> implementations = new ArrayList<LongwaveKernels>();
+		implementations.add(LongwaveKernels.scalar());
+		try {
+			implementations.add((LongwaveKernels) Class.forName("lwrb.VectorLongwaveKernels").getDeclaredConstructor()
+					.newInstance());
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			System.out.println("vector kernels not available: " + e);
+		}
+
+		Random random = new Random(11);
+		double[] airTemperature = new double[CELLS];
+		double[] soilTemperature = new double[CELLS];
+		double[] humidity = new double[CELLS];
+		double[] clearnessIndex = new double[CELLS];
+		double[] skyview = new double[CELLS];
+		double[] soilEmissivity = new double[CELLS];
+		for (int i = 0; i < CELLS; i++) {
+			airTemperature[i] = nanOrValue(random, -40 + 80 * random.nextDouble());
+			soilTemperature[i] = nanOrValue(random, -30 + 70 * random.nextDouble());
+			humidity[i] = nanOrValue(random, 0.05 + 0.95 * random.nextDouble());
+			clearnessIndex[i] = nanOrValue(random, random.nextDouble());
+			skyview[i] = nanOrValue(random, 0.3 + 0.7 * random.nextDouble());
+			soilEmissivity[i] = nanOrValue(random, 0.9 + 0.1 * random.nextDouble());
+		}
+		int from = 3;
+		int to = CELLS - 5;
+
+		int failures = 0;
+		for (LongwaveKernels kernels : implementations) {
+			for (int m = 1; m <= PARAMETERS.length; m++) {
+				ClearSkyEmissivity model = ClearSkyEmissivity.create(String.valueOf(m), PARAMETERS[m - 1][0],
+						PARAMETERS[m - 1][1], PARAMETERS[m - 1][2]);
+				double[] e = filled(-1);
+				double[] epsilon = filled(-1);
+				double[] upwelling = filled(-1);
+				double[] downwelling = filled(-1);
+				kernels.vapourPressure(airTemperature, humidity, e, from, to);
+				kernels.emissivity(model, airTemperature, e, epsilon, from, to);
+				kernels.upwelling(soilEmissivity, soilTemperature, upwelling, from, to);
+				kernels.downwelling(epsilon, airTemperature, clearnessIndex, skyview, upwelling, A_CLOUD, B_CLOUD,
+						downwelling, from, to);
+
+				double[] error = new double[4];
+				int mismatches = 0;
+				for (int i = 0; i < CELLS; i++) {
+					if (i < from || i >= to) {
+						if (e[i] != -1 || epsilon[i] != -1 || upwelling[i] != -1 || downwelling[i] != -1) {
+							mismatches++;
+						}
+						continue;
+					}
+					double t = airTemperature[i];
+					double pointE = Lwrb.vapourPressure(t, humidity[i]);
+					double pointEpsilon = model.epsilon(t + 273.15, pointE);
+					double pointUp = Lwrb.upwelling(soilEmissivity[i], soilTemperature[i]);
+					double pointDown = Lwrb.downwelling(pointEpsilon, t, clearnessIndex[i], skyview[i], pointUp,
+							A_CLOUD, B_CLOUD);
+					mismatches += compare(e[i], pointE, error, 0) + compare(epsilon[i], pointEpsilon, error, 1)
+							+ compare(upwelling[i], pointUp, error, 2) + compare(downwelling[i], pointDown, error, 3);
+				}
+				boolean passed = mismatches == 0 && error[0] <= TOLERANCE && error[1] <= TOLERANCE
+						&& error[2] <= TOLERANCE && error[3] <= TOLERANCE;
+				if (!passed) failures++;
+				System.out.println(String.format(Locale.ROOT,
+						"%-10s model %d: max relative error e %.1e, epsilon %.1e, up %.1e, down %.1e, NaN or range mismatches %d %s",
+						kernels.getName(), m, error[0], error[1], error[2], error[3], mismatches,
+						passed ? "ok" : "FAILED"));
+			}
+		}
+
+		for (LongwaveKernels kernels : implementations) {
+			try {
+				kernels.emissivity(ClearSkyEmissivity.create("6", 0, 0, 0), airTemperature, humidity, filled(0), 0,
+						CELLS);
+				System.out.println(String.format(Locale.ROOT, "%-10s model 6: accepted FAILED", kernels.getName()));
+				failures++;
+			} catch (IllegalArgumentException e) {
+				System.out.println(String.format(Locale.ROOT, "%-10s model 6: rejected ok", kernels.getName()));
+			}
+		}
+
+		System.out.println((failures == 0) ? "all checks passed" : failures + " checks failed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Compare the value of a kernel with the one of the point formula.
+	 *
+	 * @return 1 if only one of the two values is NaN, 0 otherwise
+	 */
+	private static int compare(double kernel, double point, double[] error, int term) {
+		if (Double.isNaN(kernel) || Double.isNaN(point)) {
+			return (Double.isNaN(kernel) == Double.isNaN(point)) ? 0 : 1;
+		}
+		double relative = (point == 0) ? Math.abs(kernel) : Math.abs(kernel - point) / Math.abs(point);
+		error[term] = Math.max(error[term], relative);
+		return 0;
+	}
+
+	private static double nanOrValue(Random random, double value) {
+		return (random.nextInt(40) == 0) ? Double.NaN : value;
+	}
+
+	private static double[] filled(double value) {
+		double[] array = new double[CELLS];
+		Arrays.fill(array, value);
+		return array;
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lwrb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import benchmark.Benchmark;
+import benchmark.Forcing;
+
+/**
+ * The benchmarks of the longwave radiation balance, one for each clear sky emissivity model
+ * with the parameters given by its authors.
+ */
+public class LwrbBenchmarks {
+
+	/** The parameters X, Y and Z of the models 1 to 5 */
+	private static final double[][] PARAMETERS = { { 0.618, 0.056, 0 }, { 0.261, -7.77, 0 },
+			{ 0.70, 5.95, 0 }, { -119, 1.06, 0 }, { 59.38, 113.7, 96.96 } };
+
+	public static List<Benchmark> benchmarks(final Forcing forcing) {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (int m = 1; m <= PARAMETERS.length; m++) {
+			final Lwrb component = new Lwrb();
+			component.model = String.valueOf(m);
+			component.X = PARAMETERS[m - 1][0];
+			component.Y = PARAMETERS[m - 1][1];
+			component.Z = PARAMETERS[m - 1][2];
+			component.epsilonS = 0.98;
+			component.A_Cloud = 0.17;
+			component.B_Cloud = 2;
+			component.skyview = Forcing.SKYVIEW;
+			benchmarks.add(new Benchmark("lwrb.Lwrb.process.model" + m) {
+				@Override
+				public double run(int step) throws Exception {
+					component.airTemperature = forcing.airTemperature[step];
+					component.soilTemperature = forcing.soilTemperature[step];
+					component.relative_humidity = forcing.humidity[step];
+					component.clearnessIndex = forcing.clearnessIndex[step];
+					component.process();
+					return component.downwellingALLSKY + component.upwelling;
+				}
+			});
+		}
+		return benchmarks;
+	}
+
+}
@@ -0,0 +1,49 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rainSnowSperataion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import benchmark.Benchmark;
+import benchmark.Forcing;
+
+/**
+ * The benchmark of the separation of the precipitation in rainfall and snowfall.
+ */
+public class RainSnowSeparationBenchmarks {
+
+	public static List<Benchmark> benchmarks(final Forcing forcing) {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		final RainSnowSeparation component = new RainSnowSeparation();
+		component.alfa_r = 1.05;
+		component.alfa_s = 1.2;
+		component.meltingTemperature = 0.5;
+		benchmarks.add(new Benchmark("rainSnowSperataion.RainSnowSeparation.process") {
+			@Override
+			public double run(int step) throws Exception {
+				component.precipitation = forcing.precipitation[step];
+				component.temperature = forcing.airTemperature[step];
+				component.process();
+				return component.rainfall + component.snowfall;
+			}
+		});
+		return benchmarks;
+	}
+
+}
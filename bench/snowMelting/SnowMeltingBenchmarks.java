@@ -0,0 +1,60 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package snowMelting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import benchmark.Benchmark;
+import benchmark.Forcing;
+
+/**
+ * The benchmarks of the snow melting, one for each melting model. The snowpack evolves
+ * along the forcing, so the benchmarks see the accumulation and the melting seasons.
+ */
+public class SnowMeltingBenchmarks {
+
+	public static List<Benchmark> benchmarks(final Forcing forcing) {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (String model : new String[] { "Classical", "Cazorzi", "Hoock" }) {
+			final SnowMelting component = new SnowMelting();
+			component.model = model;
+			component.meltingTemperature = 0;
+			component.combinedMeltingFactor = model.equals("Classical") ? 0.15 : 0.05;
+			component.radiationFactor = 0.0005;
+			component.freezingFactor = 0.01;
+			component.alfa_l = 0.1;
+			component.skyview = Forcing.SKYVIEW;
+			benchmarks.add(new Benchmark("snowMelting.SnowMelting.process." + model) {
+				@Override
+				public double run(int step) throws Exception {
+					double rain = (forcing.airTemperature[step] > 1) ? forcing.precipitation[step] : 0;
+					component.rainfall = rain;
+					component.snowfall = forcing.precipitation[step] - rain;
+					component.shortwaveRadiation = forcing.shortwave[step];
+					component.temperature = forcing.airTemperature[step];
+					component.EI = forcing.energyIndex[step];
+					component.process();
+					return component.SWE + component.meltingDischarge;
+				}
+			});
+		}
+		return benchmarks;
+	}
+
+}
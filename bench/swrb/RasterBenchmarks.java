@@ -0,0 +1,246 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package swrb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.jgrasstools.gears.libs.modules.ModelsEngine;
+
+import benchmark.FractalDem;
+
+/**
+ * The scaling benchmark of the raster modules: the normal vectors, the horizon index and
+ * the shadow masks of a day are computed on synthetic {@link FractalDem}s of growing size
+ * with a growing number of threads, and a table of the wall time, the cells per second,
+ * the speedup over the first number of threads (one, by default) and the peak memory is printed.
+ * <p>
+ * The baseline of the shadow masks is the default path of {@link ShadowMap}, the ray march of
+ * ModelsEngine.calculateFactor for each hour with the sun above the horizon: it is single
+ * threaded and its time grows faster than the cells, so it is run only on the sizes up to
+ * the one given with -b.
+ * <p>
+ * The peak resident set size is read from /proc/self/status and reset before each run
+ * through /proc/self/clear_refs, so it is available on Linux only; the peak heap is the sum
+ * of the peaks of the heap memory pools. Each run begins after a collection, and the modules
+ * are compiled on a small DEM before the first run.
+ * <p>
+ * Usage: <code>java swrb.RasterBenchmarks [-s 1000,2000,4000] [-t 1,2,4] [-r resolution]
+ * [-n sectors] [-d maxDistance] [-b baselineSize] [-o results.csv]</code>
+ */
+public class RasterBenchmarks {
+
+	/** The header of the CSV results */
+	static final String HEADER = "module,size,threads,wall_s,cells_per_s,speedup,peak_rss_mb,peak_heap_mb";
+
+	/** The hours of the shadow masks, in the 21st of June */
+	private static final int HOURS = 24;
+
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = { 1000, 2000, 4000 };
+		int processors = Runtime.getRuntime().availableProcessors();
+		int[] threads = null;
+		double res = 10;
+		int sectors = 16;
+		double maxDistance = 5000;
+		int baselineSize = 2000;
+		File output = null;
+		for (int a = 0; a < args.length; a++) {
+			if (args[a].equals("-s")) sizes = parse(args[++a]);
+			else if (args[a].equals("-t")) threads = parse(args[++a]);
+			else if (args[a].equals("-r")) res = Double.parseDouble(args[++a]);
+			else if (args[a].equals("-n")) sectors = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-d")) maxDistance = Double.parseDouble(args[++a]);
+			else if (args[a].equals("-b")) baselineSize = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-o")) output = new File(args[++a]);
+			else throw new IllegalArgumentException("Unknown option: " + args[a]);
+		}
+		if (threads == null) {
+			List<Integer> powers = new ArrayList<Integer>();
+			for (int t = 1; t < processors; t *= 2) powers.add(t);
+			powers.add(processors);
+			threads = new int[powers.size()];
+			for (int i = 0; i < threads.length; i++) threads[i] = powers.get(i);
+		}
+
+		double[][] sunVectors = sunVectors(Math.toRadians(46.5), 172);
+
+		// a first pass on a small DEM, so the first runs of the table are compiled
+		WritableRaster warmupWR = FractalDem.generate(256, 256, 1, processors);
+		new NormalVector().normalVector(warmupWR, res, null, null, processors);
+		ShadowStack.compute(HorizonIndex.compute(warmupWR, res, sectors, 20 * res, processors), sunVectors, processors);
+		if (baselineSize > 0) {
+			shadowMaps(warmupWR, res, sunVectors);
+		}
+
+		PrintStream csv = (output == null) ? null : new PrintStream(output, "UTF-8");
+		if (csv != null) csv.println(HEADER);
+		System.out.println(String.format(Locale.ROOT, "%-9s %7s %7s %9s %12s %7s %9s %9s", "module", "size", "threads",
+				"wall [s]", "cells/s", "speedup", "RSS [MB]", "heap [MB]"));
+
+		String[] modules = { "normal", "horizon", "shadows", "shadowmap" };
+		for (int size : sizes) {
+			WritableRaster demWR = FractalDem.generate(size, size, 42, processors);
+			double cells = (double) size * size;
+			double[] single = new double[4];
+			for (int t : threads) {
+				double[][] results = new double[4][];
+
+				startRun();
+				long start = System.nanoTime();
+				new NormalVector().normalVector(demWR, res, null, null, t);
+				results[0] = endRun(start);
+
+				startRun();
+				start = System.nanoTime();
+				HorizonIndex index = HorizonIndex.compute(demWR, res, sectors, maxDistance, t);
+				results[1] = endRun(start);
+
+				startRun();
+				start = System.nanoTime();
+				ShadowStack.compute(index, sunVectors, t);
+				results[2] = endRun(start);
+				index = null;
+
+				// the baseline does not depend on the threads
+				if (size <= baselineSize && t == threads[0]) {
+					startRun();
+					start = System.nanoTime();
+					shadowMaps(demWR, res, sunVectors);
+					results[3] = endRun(start);
+				}
+
+				for (int m = 0; m < modules.length; m++) {
+					if (results[m] == null) continue;
+					if (t == threads[0]) single[m] = results[m][0];
+					String line = String.format(Locale.ROOT, "%s,%d,%d,%.3f,%.0f,%.2f,%.1f,%.1f", modules[m], size, t,
+							results[m][0], cells / results[m][0], single[m] / results[m][0], results[m][1], results[m][2]);
+					String[] fields = line.split(",");
+					System.out.println(String.format(Locale.ROOT, "%-9s %7s %7s %9s %12s %7s %9s %9s", (Object[]) fields));
+					if (csv != null) csv.println(line);
+				}
+			}
+			demWR = null;
+		}
+		if (csv != null) csv.close();
+	}
+
+	/**
+	 * The sun vectors of the hours of a day, as computed by the radiation components.
+	 */
+	static double[][] sunVectors(double latitude, int day) {
+		SolarEphemeris ephemeris = SolarEphemeris.forLatitude(latitude);
+		double[][] sunVectors = new double[HOURS][];
+		for (int h = 0; h < HOURS; h++) {
+			sunVectors[h] = ephemeris.sunVector(day, h);
+		}
+		return sunVectors;
+	}
+
+	/**
+	 * Compute the shadow maps of the hours with the sun above the horizon as {@link ShadowMap}
+	 * does without the horizon index.
+	 */
+	static void shadowMaps(WritableRaster demWR, double res, double[][] sunVectors) {
+		for (double[] sunVector : sunVectors) {
+			if (sunVector[2] <= 0) {
+				continue;
+			}
+			ModelsEngine.calculateFactor(demWR.getHeight(), demWR.getWidth(), sunVector,
+					ModelsEngine.calcInverseSunVector(sunVector), ModelsEngine.calcNormalSunVector(sunVector), demWR, res);
+		}
+	}
+
+	/**
+	 * Collect the garbage and reset the peaks of the memory.
+	 */
+	private static void startRun() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+		try {
+			FileWriter writer = new FileWriter("/proc/self/clear_refs");
+			try {
+				writer.write("5");
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			// not on Linux: the peak of the resident set is the peak of the process
+		}
+	}
+
+	/**
+	 * @return the wall time [s], the peak resident set size [MB] and the peak heap [MB]
+	 */
+	private static double[] endRun(long start) {
+		double wall = (System.nanoTime() - start) / 1e9;
+		long heap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heap += pool.getPeakUsage().getUsed();
+			}
+		}
+		return new double[] { wall, peakRss() / 1024.0, heap / 1048576.0 };
+	}
+
+	/**
+	 * @return the peak resident set size [kB], or NaN if it is not available
+	 */
+	private static double peakRss() {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith("VmHWM:")) {
+						return Double.parseDouble(line.substring(6).replace("kB", "").trim());
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// not on Linux
+		}
+		return Double.NaN;
+	}
+
+	private static int[] parse(String list) {
+		String[] values = list.split(",");
+		int[] result = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = Integer.parseInt(values[i].trim());
+		}
+		return result;
+	}
+
+}
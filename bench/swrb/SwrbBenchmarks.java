@@ -0,0 +1,68 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package swrb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import benchmark.Benchmark;
+import benchmark.Forcing;
+
+/**
+ * The benchmarks of the point shortwave radiation balance: the component, as called by OMS
+ * with a formatted date, and the kernel it delegates to.
+ */
+public class SwrbBenchmarks {
+
+	public static List<Benchmark> benchmarks(final Forcing forcing) {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		final ShortwaveRadiationBalance component = new ShortwaveRadiationBalance();
+		component.latitude = Forcing.LATITUDE;
+		component.skyviewFactor = Forcing.SKYVIEW;
+		component.z = Forcing.ELEVATION;
+		component.pCmO3 = 0.4;
+		component.pVisibility = 70;
+		component.pAlphag = 0.3;
+		benchmarks.add(new Benchmark("swrb.ShortwaveRadiationBalance.process") {
+			@Override
+			public double run(int step) throws Exception {
+				component.temperature = forcing.airTemperature[step];
+				component.humidity = forcing.humidity[step];
+				component.currentDate = forcing.date[step];
+				component.process();
+				return component.directRadiation + component.diffuseRadiation + component.topAtmposphere;
+			}
+		});
+
+		for (final boolean tabulated : new boolean[] { false, true }) {
+			final ShortwaveRadiationKernel kernel = new ShortwaveRadiationKernel(Forcing.LATITUDE, Forcing.SKYVIEW,
+					Forcing.ELEVATION, 0.4, 70, 0.3, tabulated);
+			final double[] result = new double[3];
+			benchmarks.add(new Benchmark("swrb.ShortwaveRadiationKernel.compute" + (tabulated ? ".tabulated" : "")) {
+				@Override
+				public double run(int step) {
+					kernel.compute(forcing.time[step], forcing.airTemperature[step], forcing.humidity[step], result);
+					return result[0] + result[1] + result[2];
+				}
+			});
+		}
+		return benchmarks;
+	}
+
+}
@@ -0,0 +1,245 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ensemble;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reader of the files written by {@link ColumnarWriter}.
+ * <p>
+ * Only the header and the index are read when the file is opened: the values of a column
+ * are read by memory mapping its blocks in each chunk, so the pages of the other columns
+ * are never touched.
+ */
+public final class ColumnarReader implements Closeable {
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+
+	private final String[] stations;
+	private final String[] columns;
+
+	/** The bytes of a value, 4 or 8 */
+	private final int width;
+
+	/** The offsets and the time steps of the chunks */
+	private final long[] chunkOffsets;
+	private final int[] chunkSteps;
+
+	/** The total number of time steps */
+	private final int steps;
+
+
+	/**
+	 * Open a file and read its header and index.
+	 *
+	 * @param input is the file
+	 * @throws IOException if the file is not a closed columnar file
+	 */
+	public ColumnarReader(File input) throws IOException {
+		file = new RandomAccessFile(input, "r");
+		channel = file.getChannel();
+		try {
+			ByteBuffer header = read(0, 28);
+			if (header.getInt() != ColumnarWriter.MAGIC) {
+				throw new IOException("Not a columnar file: " + input);
+			}
+			if (header.getInt() != ColumnarWriter.VERSION) {
+				throw new IOException("Unknown version of the columnar file: " + input);
+			}
+			long indexOffset = header.getLong();
+			if (indexOffset == 0) {
+				throw new IOException("The columnar file was not closed: " + input);
+			}
+			width = header.getInt();
+			stations = new String[header.getInt()];
+			columns = new String[header.getInt()];
+			long position = 28;
+			for (int s = 0; s < stations.length; s++) {
+				int length = read(position, 4).getInt();
+				stations[s] = new String(read(position + 4, length).array(), StandardCharsets.UTF_8);
+				position += 4 + length;
+			}
+			for (int c = 0; c < columns.length; c++) {
+				int length = read(position, 4).getInt();
+				columns[c] = new String(read(position + 4, length).array(), StandardCharsets.UTF_8);
+				position += 4 + length;
+			}
+
+			int chunks = read(indexOffset, 4).getInt();
+			ByteBuffer index = read(indexOffset + 4, chunks * 12);
+			chunkOffsets = new long[chunks];
+			chunkSteps = new int[chunks];
+			int total = 0;
+			for (int k = 0; k < chunks; k++) {
+				chunkOffsets[k] = index.getLong();
+				chunkSteps[k] = index.getInt();
+				total += chunkSteps[k];
+			}
+			steps = total;
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the identifiers of the stations
+	 */
+	public String[] getStations() {
+		return stations.clone();
+	}
+
+	/**
+	 * @return the names of the columns
+	 */
+	public String[] getColumns() {
+		return columns.clone();
+	}
+
+	/**
+	 * @return the total number of time steps
+	 */
+	public int getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return true if the values are stored as floats
+	 */
+	public boolean isSinglePrecision() {
+		return width == 4;
+	}
+
+	/**
+	 * @return the instants of all the time steps [ms]
+	 * @throws IOException
+	 */
+	public long[] readTime() throws IOException {
+		long[] time = new long[steps];
+		int first = 0;
+		for (int k = 0; k < chunkOffsets.length; k++) {
+			map(chunkOffsets[k], chunkSteps[k] * 8L).asLongBuffer().get(time, first, chunkSteps[k]);
+			first += chunkSteps[k];
+		}
+		return time;
+	}
+
+	/**
+	 * Read the values of a column for a station.
+	 *
+	 * @param column is the name of the column
+	 * @param station is the identifier of the station
+	 * @return the values of all the time steps
+	 * @throws IOException
+	 */
+	public double[] read(String column, String station) throws IOException {
+		int c = indexOf(columns, column);
+		int s = indexOf(stations, station);
+		double[] values = new double[steps];
+		int first = 0;
+		for (int k = 0; k < chunkOffsets.length; k++) {
+			int n = chunkSteps[k];
+			get(map(blockOffset(k, c) + (long) s * n * width, (long) n * width), values, first, n);
+			first += n;
+		}
+		return values;
+	}
+
+	/**
+	 * Read the values of a column for all the stations.
+	 *
+	 * @param column is the name of the column
+	 * @return the values of all the time steps, by station
+	 * @throws IOException
+	 */
+	public double[][] readColumn(String column) throws IOException {
+		int c = indexOf(columns, column);
+		double[][] values = new double[stations.length][steps];
+		int first = 0;
+		for (int k = 0; k < chunkOffsets.length; k++) {
+			int n = chunkSteps[k];
+			ByteBuffer block = map(blockOffset(k, c), (long) stations.length * n * width);
+			for (int s = 0; s < stations.length; s++) {
+				block.position(s * n * width);
+				get(block, values[s], first, n);
+			}
+			first += n;
+		}
+		return values;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * @return the offset of the blocks of a column in a chunk
+	 */
+	private long blockOffset(int chunk, int column) {
+		long n = chunkSteps[chunk];
+		return chunkOffsets[chunk] + n * 8 + column * stations.length * n * width;
+	}
+
+	private void get(ByteBuffer block, double[] values, int first, int n) {
+		if (width == 4) {
+			for (int i = 0; i < n; i++) {
+				values[first + i] = block.getFloat();
+			}
+		} else {
+			block.asDoubleBuffer().get(values, first, n);
+		}
+	}
+
+	private MappedByteBuffer map(long offset, long size) throws IOException {
+		MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, offset, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	private ByteBuffer read(long offset, int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new IOException("The columnar file is truncated");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static int indexOf(String[] names, String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown name: " + name);
+	}
+
+}
@@ -0,0 +1,233 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ensemble;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A writer of the outputs of many stations in a binary columnar file, read back by
+ * {@link ColumnarReader}.
+ * <p>
+ * The file is written in chunks of consecutive time steps, as they are computed. A chunk
+ * holds the instants of its time steps and then, for each column (an output variable),
+ * a block of fixed width values for each station, so the values of a column are contiguous
+ * in each chunk and can be read without the other columns. The values are little endian,
+ * as doubles or as floats, which halve the size of the file at a precision better than
+ * the one of the measurements.
+ * <p>
+ * The layout is:
+ * <pre>
+ * header:  int magic, int version, long offset of the index, int bytes per value,
+ *          int stations, int columns, the names of the stations and of the columns
+ *          (int length + UTF-8 bytes), padding to 8 bytes
+ * chunk:   long[steps] time, then for each column, for each station, value[steps]
+ * index:   int chunks, then for each chunk long offset, int steps
+ * </pre>
+ * The index is written by {@link #close()}: a file not closed has no index and cannot be read.
+ */
+public final class ColumnarWriter implements Closeable {
+
+	static final int MAGIC = 0x43464152;
+
+	static final int VERSION = 1;
+
+	/** The position of the offset of the index in the header */
+	static final int INDEX_POSITION = 8;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int stations;
+	private final int columns;
+	private final int width;
+
+	/** The offsets and the time steps of the chunks written */
+	private final List<long[]> chunks = new ArrayList<long[]>();
+
+	/** The buffer of the blocks, reused between chunks */
+	private ByteBuffer buffer;
+
+
+	/**
+	 * Create the file and write its header.
+	 *
+	 * @param output is the file
+	 * @param stationNames are the identifiers of the stations
+	 * @param columnNames are the names of the columns
+	 * @param singlePrecision is true to write the values as floats, false as doubles
+	 * @throws IOException
+	 */
+	public ColumnarWriter(File output, String[] stationNames, String[] columnNames, boolean singlePrecision)
+			throws IOException {
+		stations = stationNames.length;
+		columns = columnNames.length;
+		width = singlePrecision ? 4 : 8;
+
+		ByteBuffer header = ByteBuffer.allocate(headerSize(stationNames, columnNames)).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putLong(0).putInt(width).putInt(stations).putInt(columns);
+		for (String name : stationNames) {
+			putName(header, name);
+		}
+		for (String name : columnNames) {
+			putName(header, name);
+		}
+		header.position(header.capacity());
+		header.flip();
+
+		file = new RandomAccessFile(output, "rw");
+		channel = file.getChannel();
+		try {
+			channel.truncate(0);
+			write(header);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		buffer = ByteBuffer.allocateDirect(8 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Append the chunk of the outputs of the stations.
+	 *
+	 * @param time are the instants of the time steps of the chunk [ms]
+	 * @param stationList are the stations, in the order of the header
+	 * @param columnNames are the names of the outputs of the columns, in the order of the
+	 *        header, as in {@link Station#output(String)}
+	 * @throws IOException
+	 */
+	public void append(long[] time, List<Station> stationList, String[] columnNames) throws IOException {
+		double[][][] values = new double[columns][stations][];
+		for (int c = 0; c < columns; c++) {
+			for (int s = 0; s < stations; s++) {
+				values[c][s] = stationList.get(s).output(columnNames[c]);
+			}
+		}
+		append(time, values);
+	}
+
+	/**
+	 * Append a chunk.
+	 *
+	 * @param time are the instants of the time steps of the chunk [ms]
+	 * @param values are the values of the chunk, by column and station: only the first
+	 *        time.length values of each array are written, a null array is written as NaN
+	 * @throws IOException
+	 */
+	public void append(long[] time, double[][][] values) throws IOException {
+		int steps = time.length;
+		chunks.add(new long[]{channel.position(), steps});
+
+		ByteBuffer times = buffer(steps * 8);
+		for (long t : time) {
+			times.putLong(t);
+		}
+		times.flip();
+		write(times);
+
+		for (int c = 0; c < columns; c++) {
+			for (int s = 0; s < stations; s++) {
+				double[] block = values[c][s];
+				if (block != null && block.length < steps) {
+					throw new IllegalArgumentException("The outputs are shorter than the chunk");
+				}
+				ByteBuffer bytes = buffer(steps * width);
+				if (width == 4) {
+					for (int i = 0; i < steps; i++) {
+						bytes.putFloat((block == null) ? Float.NaN : (float) block[i]);
+					}
+				} else if (block == null) {
+					for (int i = 0; i < steps; i++) {
+						bytes.putDouble(Double.NaN);
+					}
+				} else {
+					bytes.asDoubleBuffer().put(block, 0, steps);
+					bytes.position(steps * 8);
+				}
+				bytes.flip();
+				write(bytes);
+			}
+		}
+	}
+
+	/**
+	 * Write the index and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			long indexOffset = channel.position();
+			ByteBuffer index = buffer(4 + chunks.size() * 12);
+			index.putInt(chunks.size());
+			for (long[] chunk : chunks) {
+				index.putLong(chunk[0]).putInt((int) chunk[1]);
+			}
+			index.flip();
+			write(index);
+
+			ByteBuffer offset = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			offset.putLong(indexOffset).flip();
+			while (offset.hasRemaining()) {
+				channel.write(offset, INDEX_POSITION + offset.position());
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * @return the cleared buffer, enlarged if it is smaller than the given size
+	 */
+	private ByteBuffer buffer(int size) {
+		if (buffer.capacity() < size) {
+			buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	private void write(ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+	private static int headerSize(String[] stationNames, String[] columnNames) {
+		int size = 28;
+		for (String name : stationNames) {
+			size += 4 + name.getBytes(StandardCharsets.UTF_8).length;
+		}
+		for (String name : columnNames) {
+			size += 4 + name.getBytes(StandardCharsets.UTF_8).length;
+		}
+		return (size + 7) & ~7;
+	}
+
+	private static void putName(ByteBuffer header, String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		header.putInt(bytes.length).put(bytes);
+	}
+
+}
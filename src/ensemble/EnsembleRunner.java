@@ -0,0 +1,190 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ensemble;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import lwrb.Lwrb;
+import rainSnowSperataion.RainSnowSeparation;
+import snowMelting.SnowMelting;
+import swrb.ShortwaveRadiationBalance;
+import swrb.ShortwaveRadiationKernel;
+
+/**
+ * Run a chain of components on many stations at the same time.
+ * <p>
+ * The components are configured once, as for a single station, and only their parameters
+ * are read: the station values (latitude, elevation, skyview factor), the forcing, the
+ * outputs and the state of each station are in its {@link Station}. The chain is, in order
+ * and skipping the components left null:
+ * <ol>
+ * <li>the clear sky shortwave radiation, with the parameters of {@link #shortwave};</li>
+ * <li>the separation of the precipitation in rainfall and snowfall;</li>
+ * <li>the snow melting, with the measured shortwave radiation or the clear sky one;</li>
+ * <li>the longwave radiation balance, with the clearness index given by the measured
+ * shortwave radiation, if any.</li>
+ * </ol>
+ * The stations are split among the threads of a work-stealing pool down to one station per
+ * task, so stations with longer series do not leave the other threads idle.
+ */
+public class EnsembleRunner {
+
+	/** The component giving the parameters of the shortwave radiation, or null */
+	public ShortwaveRadiationBalance shortwave;
+
+	/** The rain-snow separation, or null */
+	public RainSnowSeparation rainSnowSeparation;
+
+	/** The snow melting, or null */
+	public SnowMelting snowMelting;
+
+	/** The longwave radiation balance, or null */
+	public Lwrb lwrb;
+
+	/** The number of threads */
+	public int pThreads = Runtime.getRuntime().availableProcessors();
+
+
+	/**
+	 * Run the chain on the forcing of all the stations.
+	 *
+	 * @param stations are the stations
+	 */
+	public void run(List<Station> stations) {
+		if (stations.isEmpty()) {
+			return;
+		}
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, pThreads));
+		try {
+			pool.invoke(new StationTask(stations, 0, stations.size()));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Run the chain on the forcing of a station.
+	 *
+	 * @param station is the station
+	 */
+	public void run(Station station) {
+		int n = station.size();
+
+		if (shortwave != null) {
+			station.direct = allocate(station.direct, n);
+			station.diffuse = allocate(station.diffuse, n);
+			station.topATM = allocate(station.topATM, n);
+			ShortwaveRadiationKernel kernel = new ShortwaveRadiationKernel(station.latitude, station.skyview,
+					station.elevation, shortwave.pCmO3, shortwave.pVisibility, shortwave.pAlphag,
+					shortwave.doTabulatedTransmittance);
+			if (shortwave.tTimestep > 0) {
+				kernel.computeMeanSeries(station.time, shortwave.tTimestep * 60000L, station.airTemperature,
+						station.humidity, station.direct, station.diffuse, station.topATM);
+			} else {
+				kernel.computeSeries(station.time, station.airTemperature, station.humidity, station.direct,
+						station.diffuse, station.topATM);
+			}
+		}
+
+		if (rainSnowSeparation != null) {
+			station.rainfall = allocate(station.rainfall, n);
+			station.snowfall = allocate(station.snowfall, n);
+			rainSnowSeparation.processSeries(station.precipitation, station.airTemperature, station.rainfall,
+					station.snowfall);
+		}
+
+		if (snowMelting != null) {
+			station.SWE = allocate(station.SWE, n);
+			station.meltingDischarge = allocate(station.meltingDischarge, n);
+			snowMelting.processSeries(station.skyview, station.rainfall, station.snowfall, shortwave(station, n),
+					station.airTemperature, station.energyIndex, station.snowState, station.SWE,
+					station.meltingDischarge);
+		}
+
+		if (lwrb != null) {
+			station.downwelling = allocate(station.downwelling, n);
+			station.upwelling = allocate(station.upwelling, n);
+			double[] clearnessIndex = new double[n];
+			for (int i = 0; i < n; i++) {
+				clearnessIndex[i] = (station.shortwave == null || station.topATM == null || station.topATM[i] == 0)
+						? Double.NaN : station.shortwave[i] / station.topATM[i];
+			}
+			lwrb.processSeries(station.skyview, station.airTemperature,
+					(station.soilTemperature == null) ? station.airTemperature : station.soilTemperature,
+					station.humidity, clearnessIndex, station.downwelling, station.upwelling);
+		}
+	}
+
+	/**
+	 * @return the measured shortwave radiation of the station, or the clear sky one, or null
+	 */
+	private static double[] shortwave(Station station, int n) {
+		if (station.shortwave != null || station.direct == null) {
+			return station.shortwave;
+		}
+		double[] clearSky = new double[n];
+		for (int i = 0; i < n; i++) {
+			double direct = Double.isNaN(station.direct[i]) ? 0 : station.direct[i];
+			double diffuse = Double.isNaN(station.diffuse[i]) ? 0 : station.diffuse[i];
+			clearSky[i] = direct + diffuse;
+		}
+		return clearSky;
+	}
+
+	/**
+	 * @return the array, or a new one if it is missing or its length is not the one of the
+	 *         forcing: the outputs are also the inputs of the following components, which
+	 *         require arrays of the same length, as in the short last chunk of a series
+	 */
+	private static double[] allocate(double[] array, int n) {
+		return (array == null || array.length != n) ? new double[n] : array;
+	}
+
+
+	/**
+	 * The task running a range of stations: the range is split in two halves down to a
+	 * single station, so the idle threads can steal the remaining stations.
+	 */
+	private class StationTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final List<Station> stations;
+		final int first;
+		final int last;
+
+		StationTask(List<Station> stations, int first, int last) {
+			this.stations = stations;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			if (last - first > 1) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new StationTask(stations, first, middle), new StationTask(stations, middle, last));
+				return;
+			}
+			run(stations.get(first));
+		}
+	}
+
+}
@@ -0,0 +1,475 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ensemble;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A streaming reader of the time series of the forcing, in the OMS csv format (the header
+ * lines begin with @T, @H, ID, Type, Format and the data lines with a comma) or in a plain
+ * csv with a header line: the first column is the date, formatted as yyyy-MM-dd HH:mm with
+ * optional seconds, in UTC, and the other columns are the values.
+ * <p>
+ * The file is memory-mapped in windows of {@link #WINDOW} bytes and the numbers are parsed
+ * straight from the mapped bytes into primitive columns of a fixed number of time steps,
+ * reused from a chunk to the next one: the heap used does not depend on the size of the
+ * file. The values equal to the no value are given as NaN.
+ * <p>
+ * Typical use: <pre>
+ * ForcingReader reader = new ForcingReader(file, 8760);
+ * while (reader.next()) {
+ *     station.time = reader.time();
+ *     station.airTemperature = reader.column(0);
+ *     ...
+ *     runner.run(station);
+ * }
+ * reader.close();
+ * </pre>
+ * The arrays of the last chunk are shorter, so the arrays must be asked again at each chunk.
+ */
+public final class ForcingReader implements Closeable {
+
+	/** The size of the mapped windows of the file */
+	static final int WINDOW = 64 * 1024 * 1024;
+
+	/** The exact powers of ten of the doubles */
+	private static final double[] POWERS = new double[23];
+
+	static {
+		POWERS[0] = 1;
+		for (int i = 1; i < POWERS.length; i++) {
+			POWERS[i] = POWERS[i - 1] * 10;
+		}
+	}
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileSize;
+
+	/** The names of the columns of the values */
+	private final String[] columns;
+
+	/** The value read as NaN */
+	private final double novalue;
+
+	/** The current window and its position in the file */
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	/** The position of the next line in the window */
+	private int position;
+
+	/** The number of the next line in the file, for the error messages */
+	private long lineNumber;
+
+	/** The chunk of time steps */
+	private long[] time;
+	private double[][] values;
+	private int size;
+
+
+	/**
+	 * Open a file with -9999 as no value.
+	 *
+	 * @param input is the file
+	 * @param chunkSize is the number of time steps of the chunks
+	 * @throws IOException
+	 */
+	public ForcingReader(File input, int chunkSize) throws IOException {
+		this(input, chunkSize, -9999.0);
+	}
+
+	/**
+	 * Open a file.
+	 *
+	 * @param input is the file
+	 * @param chunkSize is the number of time steps of the chunks
+	 * @param novalue is the value read as NaN
+	 * @throws IOException
+	 */
+	public ForcingReader(File input, int chunkSize, double novalue) throws IOException {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("The chunks must have at least one time step");
+		}
+		this.novalue = novalue;
+		file = new RandomAccessFile(input, "r");
+		try {
+			channel = file.getChannel();
+			fileSize = channel.size();
+			map(0);
+			columns = readHeader();
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		time = new long[chunkSize];
+		values = new double[columns.length][chunkSize];
+	}
+
+	/**
+	 * @return the names of the columns of the values
+	 */
+	public String[] getColumns() {
+		return columns.clone();
+	}
+
+	/**
+	 * @param name is the name of a column
+	 * @return the index of the column, -1 if there is no such column
+	 */
+	public int indexOf(String name) {
+		for (int c = 0; c < columns.length; c++) {
+			if (columns[c].equals(name)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Read the next chunk of time steps.
+	 *
+	 * @return false if the file is over
+	 * @throws IOException if a line is malformed
+	 */
+	public boolean next() throws IOException {
+		size = 0;
+		int lineEnd;
+		while (size < time.length && (lineEnd = nextLine()) >= 0) {
+			int start = position;
+			position = lineEnd + 1;
+			lineNumber++;
+			if (isBlank(start, lineEnd)) {
+				continue;
+			}
+			// the OMS data lines begin with an empty column
+			int field = (window.get(start) == ',') ? start + 1 : start;
+			int end = fieldEnd(field, lineEnd);
+			time[size] = parseDate(field, end);
+			for (int c = 0; c < values.length; c++) {
+				if (end >= lineEnd) {
+					throw new IOException("Missing values at line " + lineNumber);
+				}
+				field = end + 1;
+				end = fieldEnd(field, lineEnd);
+				double value = parseNumber(field, end);
+				values[c][size] = (value == novalue) ? Double.NaN : value;
+			}
+			size++;
+		}
+		if (size > 0 && size < time.length) {
+			// the last chunk
+			long[] lastTime = new long[size];
+			System.arraycopy(time, 0, lastTime, 0, size);
+			time = lastTime;
+			for (int c = 0; c < values.length; c++) {
+				double[] column = new double[size];
+				System.arraycopy(values[c], 0, column, 0, size);
+				values[c] = column;
+			}
+		}
+		return size > 0;
+	}
+
+	/**
+	 * @return the number of time steps of the current chunk
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the instants of the time steps of the current chunk [ms from the epoch]
+	 */
+	public long[] time() {
+		return time;
+	}
+
+	/**
+	 * @param c is the index of the column
+	 * @return the values of the column in the current chunk
+	 */
+	public double[] column(int c) {
+		return values[c];
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+
+	/**
+	 * Read the header: the names of the columns are in the @H line of the OMS files
+	 * or in the first line of the plain csv files.
+	 */
+	private String[] readHeader() throws IOException {
+		boolean oms = fileSize > 0 && window.get(0) == '@';
+		String[] names = null;
+		int lineEnd;
+		while ((lineEnd = nextLine()) >= 0) {
+			if (oms && window.get(position) == ',') {
+				break;
+			}
+			String line = text(position, lineEnd);
+			position = lineEnd + 1;
+			lineNumber++;
+			if (!oms) {
+				names = split(line);
+				break;
+			}
+			if (line.startsWith("@H")) {
+				names = split(line);
+				String[] rest = new String[names.length - 1];
+				System.arraycopy(names, 1, rest, 0, rest.length);
+				names = rest;
+			}
+		}
+		if (names == null || names.length < 2) {
+			throw new IOException("The file has no header with the date and the values");
+		}
+		String[] valueColumns = new String[names.length - 1];
+		System.arraycopy(names, 1, valueColumns, 0, valueColumns.length);
+		return valueColumns;
+	}
+
+	private static String[] split(String line) {
+		List<String> fields = new ArrayList<String>();
+		int start = 0;
+		for (int i = 0; i <= line.length(); i++) {
+			if (i == line.length() || line.charAt(i) == ',') {
+				fields.add(line.substring(start, i).trim());
+				start = i + 1;
+			}
+		}
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	/**
+	 * Find the end of the next line, moving the window if the line is not completely inside it.
+	 *
+	 * @return the position of the end of the line in the window (the newline or the end of
+	 *         the file), -1 if the file is over
+	 */
+	private int nextLine() throws IOException {
+		if (windowStart + position >= fileSize) {
+			return -1;
+		}
+		int end = find(position);
+		if (end < 0) {
+			if (windowStart + window.limit() < fileSize) {
+				map(windowStart + position);
+				end = find(position);
+			}
+			if (end < 0) {
+				if (windowStart + window.limit() < fileSize) {
+					throw new IOException("Line " + (lineNumber + 1) + " is longer than " + WINDOW + " bytes");
+				}
+				end = window.limit();
+			}
+		}
+		return end;
+	}
+
+	private int find(int from) {
+		int limit = window.limit();
+		for (int i = from; i < limit; i++) {
+			if (window.get(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void map(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(MapMode.READ_ONLY, start, Math.min(WINDOW, fileSize - start));
+		position = 0;
+	}
+
+	private int fieldEnd(int from, int lineEnd) {
+		for (int i = from; i < lineEnd; i++) {
+			if (window.get(i) == ',') {
+				return i;
+			}
+		}
+		return lineEnd;
+	}
+
+	private boolean isBlank(int from, int to) {
+		for (int i = from; i < to; i++) {
+			byte b = window.get(i);
+			if (b != ' ' && b != '\r' && b != '\t') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String text(int from, int to) {
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = window.get(from + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8).trim();
+	}
+
+	/**
+	 * Parse a date formatted as yyyy-MM-dd HH:mm or yyyy-MM-dd HH:mm:ss, in UTC.
+	 *
+	 * @return the milliseconds from the epoch
+	 */
+	private long parseDate(int from, int to) throws IOException {
+		while (from < to && window.get(from) == ' ') from++;
+		while (to > from && (window.get(to - 1) == ' ' || window.get(to - 1) == '\r')) to--;
+		int length = to - from;
+		if ((length != 16 && length != 19) || window.get(from + 4) != '-' || window.get(from + 7) != '-'
+				|| window.get(from + 13) != ':' || (length == 19 && window.get(from + 16) != ':')) {
+			throw new IOException("Malformed date at line " + lineNumber + ": " + text(from, to));
+		}
+		int year = digits(from, 4);
+		int month = digits(from + 5, 2);
+		int day = digits(from + 8, 2);
+		int hour = digits(from + 11, 2);
+		int minute = digits(from + 14, 2);
+		int second = (length == 19) ? digits(from + 17, 2) : 0;
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0
+				|| minute > 59 || second < 0 || second > 59) {
+			throw new IOException("Malformed date at line " + lineNumber + ": " + text(from, to));
+		}
+
+		// the days from the epoch of the proleptic Gregorian calendar
+		int y = (month <= 2) ? year - 1 : year;
+		int era = y / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		long days = era * 146097L + dayOfEra - 719468;
+		return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+	}
+
+	/**
+	 * @return the number written with the given digits, -1 if they are not all digits
+	 */
+	private int digits(int from, int count) {
+		int value = 0;
+		for (int i = from; i < from + count; i++) {
+			int digit = window.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Parse a decimal number. The numbers with at most 15 significant digits and a small
+	 * exponent are exactly converted from the mantissa and a power of ten, as in
+	 * {@link Double#parseDouble}, which is used for all the other numbers.
+	 *
+	 * @return the number, NaN if the field is empty
+	 */
+	private double parseNumber(int from, int to) throws IOException {
+		while (from < to && window.get(from) == ' ') from++;
+		while (to > from && (window.get(to - 1) == ' ' || window.get(to - 1) == '\r')) to--;
+		if (from == to) {
+			return Double.NaN;
+		}
+		int i = from;
+		boolean negative = window.get(i) == '-';
+		if (negative || window.get(i) == '+') i++;
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean dot = false;
+		boolean any = false;
+		for (; i < to; i++) {
+			byte b = window.get(i);
+			if (b >= '0' && b <= '9') {
+				any = true;
+				if (mantissa != 0 || b != '0') {
+					digits++;
+				}
+				if (digits > 15) {
+					return slowParse(from, to);
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				if (dot) exponent--;
+			} else if (b == '.' && !dot) {
+				dot = true;
+			} else {
+				break;
+			}
+		}
+		if (i < to) {
+			byte b = window.get(i);
+			if (!any || (b != 'e' && b != 'E')) {
+				return slowParse(from, to);
+			}
+			i++;
+			boolean negativeExponent = i < to && window.get(i) == '-';
+			if (i < to && (window.get(i) == '-' || window.get(i) == '+')) i++;
+			int value = 0;
+			if (i == to) {
+				return slowParse(from, to);
+			}
+			for (; i < to; i++) {
+				int digit = window.get(i) - '0';
+				if (digit < 0 || digit > 9 || value > 10000) {
+					return slowParse(from, to);
+				}
+				value = value * 10 + digit;
+			}
+			exponent += negativeExponent ? -value : value;
+		}
+		if (!any) {
+			return slowParse(from, to);
+		}
+		double result;
+		if (exponent == 0) {
+			result = mantissa;
+		} else if (exponent < 0 && exponent >= -22) {
+			result = mantissa / POWERS[-exponent];
+		} else if (exponent > 0 && exponent <= 22) {
+			result = mantissa * POWERS[exponent];
+		} else {
+			return slowParse(from, to);
+		}
+		return negative ? -result : result;
+	}
+
+	private double slowParse(int from, int to) throws IOException {
+		String number = text(from, to);
+		try {
+			return Double.parseDouble(number);
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed number at line " + lineNumber + ": " + number);
+		}
+	}
+
+}
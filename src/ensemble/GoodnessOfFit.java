@@ -0,0 +1,130 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ensemble;
+
+/**
+ * The goodness of fit of a simulated series to an observed one (RMSE, Nash-Sutcliffe and
+ * Kling-Gupta efficiency), accumulated in a single pass over the pairs of values, so the
+ * simulated series is never stored.
+ * <p>
+ * The sums are taken about a shift, usually the mean of the observed series: the variances
+ * then do not lose their digits in the difference of two large numbers. The pairs with a NaN
+ * value are skipped. The efficiencies are NaN when they are not defined: with no pairs, or
+ * with an observed series of zero variance.
+ */
+public final class GoodnessOfFit {
+
+	/** The shift of the values */
+	private final double shift;
+
+	/** The number of pairs */
+	private long count;
+
+	/** The sums of the shifted values: simulated, observed, squares, products and squared errors */
+	private double sumS, sumO, sumSS, sumOO, sumSO, sumDD;
+
+
+	/**
+	 * @param shift is the value subtracted from the simulated and the observed values
+	 */
+	public GoodnessOfFit(double shift) {
+		this.shift = shift;
+	}
+
+	/**
+	 * @param observed is the observed series, NaN where it is missing
+	 * @return the mean of the observed values, 0 if there are none: a good shift
+	 */
+	public static double mean(double[] observed) {
+		double sum = 0;
+		int count = 0;
+		for (double o : observed) {
+			if (!Double.isNaN(o)) {
+				sum += o;
+				count++;
+			}
+		}
+		return (count == 0) ? 0 : sum / count;
+	}
+
+	/**
+	 * Add a pair of values, unless one of them is NaN.
+	 *
+	 * @param simulated is the simulated value
+	 * @param observed is the observed value
+	 */
+	public void add(double simulated, double observed) {
+		double s = simulated - shift;
+		double o = observed - shift;
+		if (Double.isNaN(s) || Double.isNaN(o)) {
+			return;
+		}
+		count++;
+		sumS += s;
+		sumO += o;
+		sumSS += s * s;
+		sumOO += o * o;
+		sumSO += s * o;
+		sumDD += (s - o) * (s - o);
+	}
+
+	/**
+	 * @return the number of pairs added
+	 */
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * @return the root mean square error
+	 */
+	public double rmse() {
+		return (count == 0) ? Double.NaN : Math.sqrt(sumDD / count);
+	}
+
+	/**
+	 * @return the Nash-Sutcliffe efficiency
+	 */
+	public double nse() {
+		double varO = varianceO();
+		return (count == 0 || varO == 0) ? Double.NaN : 1 - sumDD / (varO * count);
+	}
+
+	/**
+	 * @return the Kling-Gupta efficiency: the correlation is 0 if a series has zero variance
+	 */
+	public double kge() {
+		double varO = varianceO();
+		if (count == 0 || varO == 0) {
+			return Double.NaN;
+		}
+		double meanS = sumS / count;
+		double meanO = sumO / count;
+		double varS = Math.max(0, sumSS / count - meanS * meanS);
+		double r = (varS > 0) ? (sumSO / count - meanS * meanO) / Math.sqrt(varS * varO) : 0;
+		double alpha = Math.sqrt(varS / varO);
+		double beta = (meanS + shift) / (meanO + shift);
+		return 1 - Math.sqrt((r - 1) * (r - 1) + (alpha - 1) * (alpha - 1) + (beta - 1) * (beta - 1));
+	}
+
+	private double varianceO() {
+		double meanO = sumO / count;
+		return Math.max(0, sumOO / count - meanO * meanO);
+	}
+
+}
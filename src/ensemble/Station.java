@@ -0,0 +1,163 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ensemble;
+
+import snowMelting.SnowMelting;
+
+/**
+ * A station of an ensemble: its parameters, the forcing of the time steps to run, the
+ * outputs of the components and the state carried from a run to the next one.
+ * <p>
+ * The forcing can be replaced between two runs, to process a long series in chunks of
+ * consecutive time steps: the state of the snowpack is kept in the station, so the
+ * following chunk goes on from the end of the previous one. The output arrays are
+ * allocated by the runner when they are missing or their length is not the one of the
+ * forcing, otherwise they are reused.
+ */
+public final class Station {
+
+	/** The names of the outputs, as in {@link #output(String)} */
+	public static final String[] OUTPUTS = {"direct", "diffuse", "topATM", "rainfall", "snowfall", "SWE",
+			"meltingDischarge", "downwelling", "upwelling"};
+
+	/** The identifier of the station */
+	public final String id;
+
+	/** The latitude [rad] */
+	public final double latitude;
+
+	/** The elevation [m] */
+	public final double elevation;
+
+	/** The skyview factor */
+	public final double skyview;
+
+	/** The instants of the time steps [ms from the epoch, UTC] */
+	public long[] time;
+
+	/** The air temperature [°C] */
+	public double[] airTemperature;
+
+	/** The relative humidity [%] */
+	public double[] humidity;
+
+	/** The precipitation [mm], needed by the rain-snow separation */
+	public double[] precipitation;
+
+	/** The measured shortwave radiation [W/m2], or null to use the clear sky radiation */
+	public double[] shortwave;
+
+	/** The soil temperature [°C], or null to use the air temperature */
+	public double[] soilTemperature;
+
+	/** The energy index of the Cazorzi model, or null */
+	public double[] energyIndex;
+
+	/** The clear sky direct radiation [W/m2] */
+	public double[] direct;
+
+	/** The clear sky diffuse radiation [W/m2] */
+	public double[] diffuse;
+
+	/** The radiation at the top of the atmosphere [W/m2] */
+	public double[] topATM;
+
+	/** The rainfall [mm], an output of the rain-snow separation or an input of the snow melting */
+	public double[] rainfall;
+
+	/** The snowfall [mm], an output of the rain-snow separation or an input of the snow melting */
+	public double[] snowfall;
+
+	/** The snow water equivalent [mm] */
+	public double[] SWE;
+
+	/** The melting discharge [mm] */
+	public double[] meltingDischarge;
+
+	/** The all-sky downwelling longwave radiation [W/m2] */
+	public double[] downwelling;
+
+	/** The upwelling longwave radiation [W/m2] */
+	public double[] upwelling;
+
+	/** The state of the snowpack, see {@link SnowMelting#processSeries} */
+	public final double[] snowState = new double[SnowMelting.STATE_SIZE];
+
+
+	/**
+	 * @param id is the identifier of the station
+	 * @param latitude is the latitude [rad]
+	 * @param elevation is the elevation [m]
+	 * @param skyview is the skyview factor
+	 */
+	public Station(String id, double latitude, double elevation, double skyview) {
+		this.id = id;
+		this.latitude = latitude;
+		this.elevation = elevation;
+		this.skyview = skyview;
+	}
+
+	/**
+	 * Set the initial conditions of the snowpack.
+	 *
+	 * @param solid is the solid water [mm]
+	 * @param liquid is the liquid water [mm]
+	 */
+	public void setSnowpack(double solid, double liquid) {
+		snowState[SnowMelting.SOLID] = solid;
+		snowState[SnowMelting.LIQUID] = liquid;
+		snowState[SnowMelting.PREVIOUS_SWE] = 0;
+	}
+
+	/**
+	 * @param name is the name of an output, one of {@link #OUTPUTS}
+	 * @return the array of the output, null if it is not computed
+	 */
+	public double[] output(String name) {
+		switch (name) {
+		case "direct":
+			return direct;
+		case "diffuse":
+			return diffuse;
+		case "topATM":
+			return topATM;
+		case "rainfall":
+			return rainfall;
+		case "snowfall":
+			return snowfall;
+		case "SWE":
+			return SWE;
+		case "meltingDischarge":
+			return meltingDischarge;
+		case "downwelling":
+			return downwelling;
+		case "upwelling":
+			return upwelling;
+		default:
+			throw new IllegalArgumentException("Unknown output: " + name);
+		}
+	}
+
+	/**
+	 * @return the number of time steps of the forcing
+	 */
+	public int size() {
+		return airTemperature.length;
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lwrb;
+
+/**
+ * The clear sky emissivity of the models of {@link SimpleModelFactory}, resolved once from
+ * the number of the model and its parameters into a function of the air temperature and of
+ * the vapour pressure.
+ * <p>
+ * Unlike the {@link Model} objects, which hold the inputs of one time step, an emissivity
+ * holds only the parameters: it is created once per run, it is shared by the threads and
+ * the computation of a time step allocates nothing. The values are the same given by the
+ * {@link Model} objects, to the last bit.
+ */
+public abstract class ClearSkyEmissivity {
+
+	/** The factor 10^-4 of the models 2 and 3, as computed by them */
+	private static final double TEN_TO_MINUS_4 = Math.pow(10, -4);
+
+	/** The Stefan-Boltzmann constant, as in the models 4 and 5 */
+	private static final double ConstBoltz = 5.670373 * Math.pow(10, -8);
+
+	/** The model and the parameters resolved */
+	final String model;
+	final double X, Y, Z;
+
+	private ClearSkyEmissivity(String model, double X, double Y, double Z) {
+		this.model = model;
+		this.X = X;
+		this.Y = Y;
+		this.Z = Z;
+	}
+
+	/**
+	 * Resolve a model.
+	 *
+	 * @param model is the number of the model, as in {@link SimpleModelFactory}
+	 * @param X is the x parameter of the formulation
+	 * @param Y is the y parameter of the formulation
+	 * @param Z is the z parameter of the formulation
+	 * @return the emissivity of the model
+	 */
+	public static ClearSkyEmissivity create(String model, double X, double Y, double Z) {
+
+		/**Brunt's [1932]*/
+		if (model.equals("1")) {
+			return new ClearSkyEmissivity(model, X, Y, Z) {
+				@Override
+				public double epsilon(double airTemperature, double e) {
+					return (X + Y * Math.pow(e, 0.5));
+				}
+			};
+
+			/**Idso and Jackson [1969]*/
+		} else if (model.equals("2")) {
+			final double y = Y * TEN_TO_MINUS_4;
+			return new ClearSkyEmissivity(model, X, Y, Z) {
+				@Override
+				public double epsilon(double airTemperature, double e) {
+					return (1.0 - X * Math.exp((y * (273 - airTemperature) * (273 - airTemperature))));
+				}
+			};
+
+			/**Idso [1981]*/
+		} else if (model.equals("3")) {
+			final double y = Y * TEN_TO_MINUS_4;
+			return new ClearSkyEmissivity(model, X, Y, Z) {
+				@Override
+				public double epsilon(double airTemperature, double e) {
+					return (X + y * e * Math.exp(1500 / airTemperature));
+				}
+			};
+
+			/**Monteith and Unsworth [1990]*/
+		} else if (model.equals("4")) {
+			return new ClearSkyEmissivity(model, X, Y, Z) {
+				@Override
+				public double epsilon(double airTemperature, double e) {
+					return (X + Y * ConstBoltz * Math.pow(airTemperature, 4)) / (ConstBoltz * Math.pow(airTemperature, 4));
+				}
+			};
+
+			/**Dilley and O'Brien [1998]*/
+		} else if (model.equals("5")) {
+			return new ClearSkyEmissivity(model, X, Y, Z) {
+				@Override
+				public double epsilon(double airTemperature, double e) {
+					double w = 4650 * e / airTemperature;
+					return (X + Y * Math.pow(airTemperature / 273.16, 6) + Z * Math.pow((w / 25), 0.5))
+							/ (ConstBoltz * Math.pow(airTemperature, 4));
+				}
+			};
+
+			/**to be implemented*/
+		} else if (model.equals("6")) {
+			return new ClearSkyEmissivity(model, X, Y, Z) {
+				@Override
+				public double epsilon(double airTemperature, double e) {
+					throw new NullPointerException("The model is not implemented");
+				}
+			};
+		}
+		throw new IllegalArgumentException("Unknown longwave model: " + model);
+	}
+
+	/**
+	 * @return true if this is the emissivity of the given model and parameters
+	 */
+	public boolean matches(String model, double X, double Y, double Z) {
+		return this.model.equals(model) && this.X == X && this.Y == Y && this.Z == Z;
+	}
+
+	/**
+	 * Compute the clear sky emissivity.
+	 *
+	 * @param airTemperature is the air temperature [K]
+	 * @param e is the screen-level water-vapor pressure [kPa]
+	 * @return the clear sky emissivity
+	 */
+	public abstract double epsilon(double airTemperature, double e);
+
+	/**
+	 * Compute the clear sky emissivity of many values.
+	 *
+	 * @param airTemperature is the air temperature [K]
+	 * @param e is the screen-level water-vapor pressure [kPa]
+	 * @param epsilon is the output array of the emissivity
+	 * @param from is the first index to compute
+	 * @param to is the index after the last one to compute
+	 */
+	public void epsilon(double[] airTemperature, double[] e, double[] epsilon, int from, int to) {
+		for (int i = from; i < to; i++) {
+			epsilon[i] = epsilon(airTemperature[i], e[i]);
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lwrb;
+
+/**
+ * Batch kernels of the longwave radiation balance: the terms of {@link Lwrb} computed over
+ * ranges of arrays, for the maps and the long series.
+ * <p>
+ * The kernels give the same values of the point formulas within a relative error of 1e-13:
+ * the fourth and sixth powers are computed as products and the Tetens power of ten as an
+ * exponential, instead of the general {@link Math#pow}. NaN inputs give NaN outputs.
+ * <p>
+ * {@link #getInstance()} gives the kernels written with the Vector API (jdk.incubator.vector)
+ * when their class, compiled from the vector source folder with JDK 17 or later, is on the
+ * class path and the module is enabled (--add-modules jdk.incubator.vector); otherwise, or if
+ * the system property lwrb.kernels is "scalar", it gives the scalar kernels.
+ * <p>
+ * The vector source folder is not in the Java 8 build of the project: it is compiled on its own,
+ * against the classes of src, with
+ * <code>javac --release 17 --add-modules jdk.incubator.vector -cp &lt;classes of src&gt;
+ * -d &lt;classes&gt; vector/lwrb/VectorLongwaveKernels.java</code>, and its classes are put on the
+ * class path next to the ones of src. The equivalence of the kernels with the point formulas is
+ * checked by lwrb.LongwaveKernelsCheck, in the bench source folder.
+ */
+public abstract class LongwaveKernels {
+
+	/** The class of the Vector API kernels, loaded by reflection */
+	private static final String VECTOR_KERNELS = "lwrb.VectorLongwaveKernels";
+
+	/** The Stefan-Boltzmann constant, as in {@link Lwrb} */
+	static final double ConstBoltz = 5.670373 * Math.pow(10, -8);
+
+	private static final LongwaveKernels INSTANCE = load();
+
+	/**
+	 * @return the fastest kernels available
+	 */
+	public static LongwaveKernels getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the scalar kernels
+	 */
+	public static LongwaveKernels scalar() {
+		return new ScalarLongwaveKernels();
+	}
+
+	private static LongwaveKernels load() {
+		if (!"scalar".equals(System.getProperty("lwrb.kernels"))) {
+			try {
+				return (LongwaveKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+				// no Vector API: the class or the incubator module is missing
+			}
+		}
+		return new ScalarLongwaveKernels();
+	}
+
+	/**
+	 * @return the name of the implementation
+	 */
+	public abstract String getName();
+
+	/**
+	 * Compute the upwelling longwave radiation.
+	 *
+	 * @param epsilonS is the soil emissivity
+	 * @param soilTemperature is the soil temperature [°C]
+	 * @param upwelling is the output array of the upwelling [W/m2]
+	 * @param from is the first index to compute
+	 * @param to is the index after the last one to compute
+	 */
+	public abstract void upwelling(double[] epsilonS, double[] soilTemperature, double[] upwelling, int from, int to);
+
+	/**
+	 * Compute the screen-level water-vapor pressure.
+	 *
+	 * @param airTemperature is the air temperature [°C]
+	 * @param humidity is the relative humidity, in [0, 1]
+	 * @param e is the output array of the vapour pressure [kPa]
+	 * @param from is the first index to compute
+	 * @param to is the index after the last one to compute
+	 */
+	public abstract void vapourPressure(double[] airTemperature, double[] humidity, double[] e, int from, int to);
+
+	/**
+	 * Compute the clear sky emissivity.
+	 *
+	 * @param model is the emissivity model and its parameters
+	 * @param airTemperature is the air temperature [°C]
+	 * @param e is the vapour pressure [kPa]
+	 * @param epsilon is the output array of the clear sky emissivity
+	 * @param from is the first index to compute
+	 * @param to is the index after the last one to compute
+	 */
+	public abstract void emissivity(ClearSkyEmissivity model, double[] airTemperature, double[] e, double[] epsilon,
+			int from, int to);
+
+	/**
+	 * Compute the all-sky downwelling longwave radiation.
+	 *
+	 * @param epsilonCS is the clear sky emissivity
+	 * @param airTemperature is the air temperature [°C]
+	 * @param clearnessIndex is the clearness index
+	 * @param skyview is the skyview factor
+	 * @param upwelling is the upwelling [W/m2]
+	 * @param A_Cloud is the coefficient of the cloud cover
+	 * @param B_Cloud is the exponent of the cloud cover
+	 * @param downwelling is the output array of the downwelling [W/m2]
+	 * @param from is the first index to compute
+	 * @param to is the index after the last one to compute
+	 */
+	public abstract void downwelling(double[] epsilonCS, double[] airTemperature, double[] clearnessIndex,
+			double[] skyview, double[] upwelling, double A_Cloud, double B_Cloud, double[] downwelling, int from, int to);
+
+}
@@ -107,8 +107,6 @@ public class Lwrb {
 	@Description("Stefan-Boltzaman costant")
 	private static final double ConstBoltz = 5.670373 * Math.pow(10, -8);
 
-	Model modelCS;
-	
 	@Description("The downwelling radiation computed with all-sky conditions")
 	@Out
 	@Unit("W/m2")
@@ -119,6 +117,9 @@ public class Lwrb {
 	@Unit("W/m2")
 	double upwelling;
 
+	/** The clear sky emissivity of the model, resolved at the first time step */
+	private ClearSkyEmissivity emissivity;
+
 
 	/**
 	 * Process.
@@ -132,17 +133,55 @@ public class Lwrb {
 		if (Double.isNaN(relative_humidity)) relative_humidity= pRH;
 		if (Double.isNaN(clearnessIndex )) clearnessIndex = 1;
 		
+		if (emissivity == null || !emissivity.matches(model, X, Y, Z)) {
+			emissivity = ClearSkyEmissivity.create(model, X, Y, Z);
+		}
+
 		/**Computation of the downwelling, upwelling and longwave:
 		 * if there is no value in the input data, there will be no value also in
 		 * the output*/
 		upwelling=(Double.isNaN(soilTemperature))? Double.NaN:computeUpwelling(soilTemperature);
 		
 		downwellingALLSKY=(Double.isNaN(airTemperature))? Double.NaN:
-			computeDownwelling(model,airTemperature,relative_humidity/100, clearnessIndex, upwelling, skyview);
+			computeDownwelling(emissivity,airTemperature,relative_humidity/100, clearnessIndex, skyview, upwelling);
 
 
 	}
 	
+	/**
+	 * Process a whole time series in one pass: the i-th values are computed with the i-th inputs
+	 * and written in the i-th element of the output arrays, which must be allocated by the caller.
+	 * The values are the same given by {@link #process()}, but only the parameters of the
+	 * component are read, so the same component can process many stations at the same time.
+	 *
+	 * @param skyview is the skyview factor of the station
+	 * @param airTemperature is the air temperature [°C]
+	 * @param soilTemperature is the soil temperature [°C]
+	 * @param relativeHumidity is the relative humidity [%], NaN for the default value
+	 * @param clearnessIndex is the clearness index, NaN for clear sky
+	 * @param downwelling is the output array of the all-sky downwelling
+	 * @param upwelling is the output array of the upwelling
+	 */
+	public void processSeries(double skyview, double[] airTemperature, double[] soilTemperature,
+			double[] relativeHumidity, double[] clearnessIndex, double[] downwelling, double[] upwelling) {
+
+		int n = airTemperature.length;
+		if (soilTemperature.length != n || relativeHumidity.length != n || clearnessIndex.length != n
+				|| downwelling.length < n || upwelling.length < n) {
+			throw new IllegalArgumentException("The input and output arrays must have the same length");
+		}
+
+		ClearSkyEmissivity emissivity = ClearSkyEmissivity.create(model, X, Y, Z);
+		for (int i = 0; i < n; i++) {
+			double humidity = Double.isNaN(relativeHumidity[i]) ? pRH : relativeHumidity[i];
+			double ci = Double.isNaN(clearnessIndex[i]) ? 1 : clearnessIndex[i];
+			double up = (Double.isNaN(soilTemperature[i])) ? Double.NaN : computeUpwelling(soilTemperature[i]);
+			upwelling[i] = up;
+			downwelling[i] = (Double.isNaN(airTemperature[i])) ? Double.NaN
+					: computeDownwelling(emissivity, airTemperature[i], humidity / 100, ci, skyview, up);
+		}
+	}
+
 	/**
 	 * Compute the upwelling longwave radiation .
 	 *
@@ -150,6 +189,17 @@ public class Lwrb {
 	 * @return the double value of the upwelling
 	 */
 	private double computeUpwelling( double soilTemperature){
+		return upwelling(epsilonS, soilTemperature);
+	}
+
+	/**
+	 * Compute the upwelling longwave radiation.
+	 *
+	 * @param epsilonS: the soil emissivity
+	 * @param soilTemperature: the soil temperature [°C]
+	 * @return the double value of the upwelling
+	 */
+	static double upwelling(double epsilonS, double soilTemperature){
 
 		/**compute the upwelling*/
 		return epsilonS * ConstBoltz * Math.pow(soilTemperature+ 273.15, 4);
@@ -160,21 +210,48 @@ public class Lwrb {
 	/**
 	 * Compute downwelling longwave radiation.
 	 *
-	 * @param model: the string containing the number of the model
+	 * @param emissivity: the clear sky emissivity of the model
 	 * @param airTemperature:  the air temperature input
 	 * @param humidity: the humidity input
 	 * @param clearnessIndex: the clearness index input
+	 * @param skyviewvalue: the skyview factor
+	 * @param upwelling: the upwelling radiation [W/m2]
 	 * @return the double value of the all sky downwelling
 	 */
-	private double computeDownwelling(String model,double airTemperature, 
+	private double computeDownwelling(ClearSkyEmissivity emissivity,double airTemperature, 
 			double humidity, double clearnessIndex, double skyviewvalue, double upwelling){
 
-		/**e is the screen-level water-vapor pressure*/
-		double e = humidity *6.11 * Math.pow(10, (7.5 * airTemperature) / (237.3 + airTemperature)) / 10;
-
 		/**compute the clear sky emissivity*/
-		modelCS=SimpleModelFactory.createModel(model,X,Y,Z,airTemperature+ 273.15,e);
-		double epsilonCS=modelCS.epsilonCSValues();
+		double epsilonCS=emissivity.epsilon(airTemperature+ 273.15,vapourPressure(airTemperature, humidity));
+
+		return downwelling(epsilonCS, airTemperature, clearnessIndex, skyviewvalue, upwelling, A_Cloud, B_Cloud);
+	}
+
+	/**
+	 * Compute the screen-level water-vapor pressure.
+	 *
+	 * @param airTemperature: the air temperature [°C]
+	 * @param humidity: the relative humidity, in [0, 1]
+	 * @return the vapour pressure [kPa]
+	 */
+	static double vapourPressure(double airTemperature, double humidity){
+		return humidity *6.11 * Math.pow(10, (7.5 * airTemperature) / (237.3 + airTemperature)) / 10;
+	}
+
+	/**
+	 * Compute downwelling longwave radiation from the clear sky emissivity.
+	 *
+	 * @param epsilonCS: the clear sky emissivity
+	 * @param airTemperature: the air temperature [°C]
+	 * @param clearnessIndex: the clearness index
+	 * @param skyviewvalue: the skyview factor
+	 * @param upwelling: the upwelling radiation [W/m2]
+	 * @param A_Cloud: the coefficient of the cloud cover
+	 * @param B_Cloud: the exponent of the cloud cover
+	 * @return the double value of the all sky downwelling
+	 */
+	static double downwelling(double epsilonCS, double airTemperature, double clearnessIndex,
+			double skyviewvalue, double upwelling, double A_Cloud, double B_Cloud){
 
 		/**compute the downwelling in clear sky conditions*/
 		double downwellingCS=epsilonCS* ConstBoltz* Math.pow(airTemperature+ 273.15, 4);
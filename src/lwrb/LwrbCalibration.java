@@ -0,0 +1,400 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lwrb;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ensemble.GoodnessOfFit;
+import oms3.annotations.Author;
+import oms3.annotations.Description;
+import oms3.annotations.Documentation;
+import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Out;
+import oms3.annotations.Status;
+import oms3.annotations.Unit;
+
+
+@Description("The component calibrates the parameters X, Y, Z, A_Cloud and B_Cloud of lwrb against "
+		+ "the measured downwelling, for each clear sky emissivity model, with the differential evolution.")
+@Documentation("")
+@Author(name = "Marialaura Bancheri and Giuseppe Formetta", contact = "maryban@hotmail.it")
+@Keywords("Hydrology, Radiation, Downwelling, Calibration")
+@Name("lwrbcalibration")
+@Status(Status.CERTIFIED)
+@License("General Public License Version 3 (GPLv3)")
+
+public class LwrbCalibration {
+
+	@Description("Air temperature input series")
+	@In
+	@Unit("°C")
+	public double[] airTemperature;
+
+	@Description("Soil temperature input series")
+	@In
+	@Unit("°C")
+	public double[] soilTemperature;
+
+	@Description("Humidity input series, NaN for the reference humidity")
+	@In
+	@Unit("%")
+	public double[] relativeHumidity;
+
+	@Description("Clearness index input series, NaN for clear sky")
+	@In
+	@Unit("[0,1]")
+	public double[] clearnessIndex;
+
+	@Description("The measured downwelling, NaN where it is missing")
+	@In
+	@Unit("W/m2")
+	public double[] measuredDownwelling;
+
+	@Description("skyview factor input value")
+	@In
+	@Unit("-")
+	public double skyview;
+
+	@Description("Soil emissivity")
+	@In
+	@Unit("-")
+	public double epsilonS;
+
+	@Description("The numbers of the models to calibrate, as in lwrb")
+	@In
+	public String[] models = { "1", "2", "3", "4", "5" };
+
+	@Description("The objective function: KGE (Kling-Gupta efficiency, maximized) or RMSE (minimized)")
+	@In
+	public String pObjective = "KGE";
+
+	@Description("The number of parameter sets of the population")
+	@In
+	public int pPopulation = 40;
+
+	@Description("The number of generations")
+	@In
+	public int pGenerations = 150;
+
+	@Description("The differential weight of the mutation")
+	@In
+	public double pF = 0.7;
+
+	@Description("The crossover probability")
+	@In
+	public double pCR = 0.9;
+
+	@Description("The seed of the random generator")
+	@In
+	public long pSeed = 1;
+
+	@Description("The number of threads evaluating the population")
+	@In
+	public int pThreads = Runtime.getRuntime().availableProcessors();
+
+	@Description("The best parameters X, Y, Z, A_Cloud and B_Cloud of each model, in the order of models")
+	@Out
+	public double[][] outParameters;
+
+	@Description("The objective function of the best parameters of each model")
+	@Out
+	public double[] outObjective;
+
+	/** The indices of the parameters */
+	public static final int X = 0, Y = 1, Z = 2, A_CLOUD = 3, B_CLOUD = 4, PARAMETERS = 5;
+
+	/**
+	 * The default bounds of the parameters of the models 1 to 5, around the values of
+	 * their authors: lower and upper bound of X, Y, Z, A_Cloud and B_Cloud.
+	 */
+	private static final double[][][] BOUNDS = {
+			{ { 0.4, 0, 0, 0, 1 }, { 0.8, 0.5, 0, 1, 3 } },
+			{ { 0.1, -10, 0, 0, 1 }, { 0.4, -5, 0, 1, 3 } },
+			{ { 0.5, 3, 0, 0, 1 }, { 0.9, 9, 0, 1, 3 } },
+			{ { -200, 0.8, 0, 0, 1 }, { -50, 1.3, 0, 1, 3 } },
+			{ { 30, 80, 60, 0, 1 }, { 90, 150, 130, 1, 3 } } };
+
+	/** The bounds set for the models, by model number, or null for the default ones */
+	private final double[][][] bounds = new double[BOUNDS.length][][];
+
+	/** The parameter-independent terms of the series, computed once per call of process(), calibrate or objective */
+	private double[] upwelling;
+	private double[] vapourPressure;
+	private double[] clearness;
+
+	/** The mean of the measured downwelling, about which the objective function is accumulated */
+	private double shift;
+
+	/** The pool of the threads, kept between the calibrations */
+	private ForkJoinPool pool;
+
+
+	/**
+	 * Set the bounds of the parameters of a model.
+	 *
+	 * @param model is the number of the model, from 1 to 5
+	 * @param lower are the lower bounds of X, Y, Z, A_Cloud and B_Cloud
+	 * @param upper are the upper bounds of X, Y, Z, A_Cloud and B_Cloud
+	 */
+	public void setBounds(String model, double[] lower, double[] upper) {
+		if (lower.length != PARAMETERS || upper.length != PARAMETERS) {
+			throw new IllegalArgumentException("The bounds must have " + PARAMETERS + " values");
+		}
+		bounds[modelIndex(model)] = new double[][] { lower.clone(), upper.clone() };
+	}
+
+	/**
+	 * Calibrate all the models.
+	 */
+	@Execute
+	public void process() {
+		outParameters = new double[models.length][];
+		outObjective = new double[models.length];
+		prepare();
+		for (int m = 0; m < models.length; m++) {
+			outParameters[m] = evolve(models[m]);
+			outObjective[m] = evaluate(models[m], outParameters[m]);
+		}
+	}
+
+	/**
+	 * Calibrate a model with the differential evolution (rand/1/bin): at each generation a
+	 * trial set is built for each member of the population, and the trials are evaluated in
+	 * parallel, each one on the whole series. The trials are drawn from a single seeded
+	 * generator, so the result does not depend on the number of threads.
+	 *
+	 * @param model is the number of the model
+	 * @return the best parameters X, Y, Z, A_Cloud and B_Cloud
+	 */
+	public double[] calibrate(String model) {
+		prepare();
+		return evolve(model);
+	}
+
+	/**
+	 * Run the differential evolution on the series already prepared.
+	 */
+	private double[] evolve(String model) {
+		int index = modelIndex(model);
+		double[] lower = (bounds[index] != null) ? bounds[index][0] : BOUNDS[index][0];
+		double[] upper = (bounds[index] != null) ? bounds[index][1] : BOUNDS[index][1];
+		int n = Math.max(4, pPopulation);
+
+		Random random = new Random(pSeed);
+		double[][] population = new double[n][PARAMETERS];
+		double[] cost = new double[n];
+		for (int p = 0; p < n; p++) {
+			for (int k = 0; k < PARAMETERS; k++) {
+				population[p][k] = lower[k] + random.nextDouble() * (upper[k] - lower[k]);
+			}
+		}
+
+		getPool().invoke(new EvaluationTask(model, population, cost, 0, n));
+		double[][] trials = new double[n][PARAMETERS];
+		double[] trialCost = new double[n];
+		for (int g = 0; g < pGenerations; g++) {
+			for (int p = 0; p < n; p++) {
+				int a, b, c;
+				do a = random.nextInt(n); while (a == p);
+				do b = random.nextInt(n); while (b == p || b == a);
+				do c = random.nextInt(n); while (c == p || c == a || c == b);
+				int forced = random.nextInt(PARAMETERS);
+				for (int k = 0; k < PARAMETERS; k++) {
+					double value = population[p][k];
+					if (k == forced || random.nextDouble() < pCR) {
+						value = population[a][k] + pF * (population[b][k] - population[c][k]);
+						// the values out of the bounds are moved back between the bound and the parent
+						if (value < lower[k]) value = lower[k] + random.nextDouble() * (population[p][k] - lower[k]);
+						if (value > upper[k]) value = upper[k] - random.nextDouble() * (upper[k] - population[p][k]);
+					}
+					trials[p][k] = value;
+				}
+			}
+			getPool().invoke(new EvaluationTask(model, trials, trialCost, 0, n));
+			for (int p = 0; p < n; p++) {
+				if (trialCost[p] <= cost[p]) {
+					System.arraycopy(trials[p], 0, population[p], 0, PARAMETERS);
+					cost[p] = trialCost[p];
+				}
+			}
+		}
+
+		int best = 0;
+		for (int p = 1; p < n; p++) {
+			if (cost[p] < cost[best]) best = p;
+		}
+		return population[best].clone();
+	}
+
+	/**
+	 * Get the pool of the threads, created at the first calibration and kept by the following
+	 * ones; it is created again only if the number of threads changes.
+	 *
+	 * @return the pool of pThreads threads
+	 */
+	private ForkJoinPool getPool() {
+		int threads = Math.max(1, pThreads);
+		if (pool == null || pool.getParallelism() != threads) {
+			if (pool != null) pool.shutdown();
+			pool = new ForkJoinPool(threads);
+		}
+		return pool;
+	}
+
+	/**
+	 * Shut down the pool of the threads at the end of the simulation.
+	 */
+	@Finalize
+	public void close() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * Compute the objective function of a parameter set.
+	 *
+	 * @param model is the number of the model
+	 * @param parameters are X, Y, Z, A_Cloud and B_Cloud
+	 * @return the KGE or the RMSE of the simulated downwelling
+	 */
+	public double objective(String model, double[] parameters) {
+		prepare();
+		return evaluate(model, parameters);
+	}
+
+	/**
+	 * Compute the objective function on the series already prepared.
+	 */
+	private double evaluate(String model, double[] parameters) {
+		double cost = cost(model, parameters);
+		return isKGE() ? 1 - cost : cost;
+	}
+
+	/**
+	 * Compute the terms of the series which do not depend on the parameters.
+	 */
+	private void prepare() {
+		int n = airTemperature.length;
+		if (soilTemperature.length != n || relativeHumidity.length != n || clearnessIndex.length != n
+				|| measuredDownwelling.length != n) {
+			throw new IllegalArgumentException("The input arrays must have the same length");
+		}
+		if (!isKGE() && !pObjective.equals("RMSE")) {
+			throw new IllegalArgumentException("Unknown objective function: " + pObjective);
+		}
+		upwelling = new double[n];
+		vapourPressure = new double[n];
+		clearness = new double[n];
+		shift = GoodnessOfFit.mean(measuredDownwelling);
+		for (int i = 0; i < n; i++) {
+			double humidity = Double.isNaN(relativeHumidity[i]) ? 0.7 : relativeHumidity[i];
+			vapourPressure[i] = Lwrb.vapourPressure(airTemperature[i], humidity / 100);
+			clearness[i] = Double.isNaN(clearnessIndex[i]) ? 1 : clearnessIndex[i];
+			upwelling[i] = Double.isNaN(soilTemperature[i]) ? Double.NaN : Lwrb.upwelling(epsilonS, soilTemperature[i]);
+		}
+	}
+
+	private boolean isKGE() {
+		return pObjective.equals("KGE");
+	}
+
+	/**
+	 * Simulate the downwelling as {@link Lwrb#processSeries} does and compare it with the
+	 * measured one, in a single pass over the series.
+	 *
+	 * @return 1 - KGE or the RMSE, infinite if there are no valid time steps or the KGE is not
+	 *         defined, as for a measured series of zero variance
+	 */
+	double cost(String model, double[] parameters) {
+		ClearSkyEmissivity emissivity = ClearSkyEmissivity.create(model, parameters[X], parameters[Y], parameters[Z]);
+		double aCloud = parameters[A_CLOUD];
+		double bCloud = parameters[B_CLOUD];
+		GoodnessOfFit fit = new GoodnessOfFit(shift);
+		for (int i = 0; i < airTemperature.length; i++) {
+			double observed = measuredDownwelling[i];
+			double t = airTemperature[i];
+			if (Double.isNaN(observed) || Double.isNaN(t)) {
+				continue;
+			}
+			double epsilonCS = emissivity.epsilon(t + 273.15, vapourPressure[i]);
+			fit.add(Lwrb.downwelling(epsilonCS, t, clearness[i], skyview, upwelling[i], aCloud, bCloud), observed);
+		}
+		if (fit.count() == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		if (!isKGE()) {
+			return fit.rmse();
+		}
+		double kge = fit.kge();
+		return Double.isNaN(kge) ? Double.POSITIVE_INFINITY : 1 - kge;
+	}
+
+	private static int modelIndex(String model) {
+		for (int m = 0; m < BOUNDS.length; m++) {
+			if (model.equals(String.valueOf(m + 1))) {
+				return m;
+			}
+		}
+		throw new IllegalArgumentException("The model " + model + " cannot be calibrated");
+	}
+
+
+	/**
+	 * The task evaluating a range of parameter sets: the range is split in two halves down
+	 * to a single set, which is evaluated on the whole series.
+	 */
+	private class EvaluationTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final String model;
+		final double[][] parameters;
+		final double[] cost;
+		final int first;
+		final int last;
+
+		EvaluationTask(String model, double[][] parameters, double[] cost, int first, int last) {
+			this.model = model;
+			this.parameters = parameters;
+			this.cost = cost;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			if (last - first > 1) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new EvaluationTask(model, parameters, cost, first, middle),
+						new EvaluationTask(model, parameters, cost, middle, last));
+				return;
+			}
+			cost[first] = cost(model, parameters[first]);
+		}
+	}
+
+}
@@ -0,0 +1,388 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lwrb;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import oms3.annotations.Author;
+import oms3.annotations.Description;
+import oms3.annotations.Documentation;
+import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.Label;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Out;
+import oms3.annotations.Status;
+import oms3.annotations.Unit;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+import org.jgrasstools.gears.libs.modules.JGTModel;
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+
+@Description("The component computes the maps of the longwave radiation, both upwelling and downwelling, "
+		+ "with the formulation of lwrb applied to each pixel.")
+@Documentation("")
+@Author(name = "Marialaura Bancheri and Giuseppe Formetta", contact = "maryban@hotmail.it")
+@Keywords("Hydrology, Radiation, Downwelling , upwelling, Raster")
+@Label(JGTConstants.HYDROGEOMORPHOLOGY)
+@Name("lwrbraster")
+@Status(Status.CERTIFIED)
+@License("General Public License Version 3 (GPLv3)")
+public class LwrbRaster extends JGTModel {
+
+	@Description("The map of the air temperature")
+	@In
+	@Unit("°C")
+	public GridCoverage2D inAirTemperature;
+
+	@Description("The map of the soil temperature")
+	@In
+	@Unit("°C")
+	public GridCoverage2D inSoilTemperature;
+
+	@Description("The map of the relative humidity, or null for the reference humidity")
+	@In
+	@Unit("%")
+	public GridCoverage2D inHumidity;
+
+	@Description("The map of the clearness index, or null for clear sky")
+	@In
+	@Unit("[0,1]")
+	public GridCoverage2D inClearnessIndex;
+
+	@Description("The map of the skyview factor")
+	@In
+	public GridCoverage2D inSkyview;
+
+	@Description("The map of the soil emissivity, or null to use epsilonS in all the pixels")
+	@In
+	@Unit("-")
+	public GridCoverage2D inSoilEmissivity;
+
+	@Description("X parameter of the literature formulation")
+	@In
+	public double X;
+
+	@Description("Y parameter of the literature formulation")
+	@In
+	public double Y;
+
+	@Description("Z parameter of the literature formulation")
+	@In
+	public double Z;
+
+	@Description("Soil emissivity, if there is no map of the soil emissivity")
+	@Unit("-")
+	@In
+	public double epsilonS;
+
+	@Description("String containing the number of the model: "
+			+ "1: Brunt's [1932];"
+			+ " 2: Idso and Jackson [1969];"
+			+ " 3: Idso [1981];"
+			+ " 4: Monteith and Unsworth [1990];"
+			+ " 5: Dilley and O'Brien [1998];"
+			+ " 6: To be implemented")
+	@In
+	public String model;
+
+	@Description("Coefficient to take into account the cloud cover,"
+			+ "set equal to 0 for clear sky conditions ")
+	@In
+	public double A_Cloud;
+
+	@Description("Exponent  to take into account the cloud cover,"
+			+ "set equal to 1 for clear sky conditions")
+	@In
+	public double B_Cloud;
+
+	@Description("If true the output maps are float rasters, otherwise double rasters")
+	@In
+	public boolean doFloatOutput = false;
+
+	@Description("If true the maps are computed with the batch kernels (vectorized if the Vector API "
+			+ "is available): faster, with a relative error below 1e-13")
+	@In
+	public boolean doFastKernels = false;
+
+	@Description("The number of threads used to compute the maps")
+	@In
+	public int pThreads = Runtime.getRuntime().availableProcessors();
+
+	@Description("Reference humidity")
+	private static final double pRH = 0.7;
+
+	@Description("The number of cells below which a tile is not split further")
+	private static final int CELLS_PER_TASK = 64 * 64;
+
+	@Description("The clear sky emissivity of the model")
+	ClearSkyEmissivity emissivity;
+
+	@Description("The batch kernels, if doFastKernels is true")
+	LongwaveKernels kernels;
+
+	@Description("The pool of the threads, kept between the time steps")
+	ForkJoinPool pool;
+
+	WritableRaster airTemperatureWR;
+	WritableRaster soilTemperatureWR;
+	WritableRaster humidityWR;
+	WritableRaster clearnessIndexWR;
+	WritableRaster skyviewWR;
+	WritableRaster soilEmissivityWR;
+
+	@Description("The raster of the downwelling, allocated at the first time step and reused by the following ones")
+	WritableRaster downwellingWR;
+
+	@Description("The raster of the upwelling, allocated at the first time step and reused by the following ones")
+	WritableRaster upwellingWR;
+
+	@Description("The map of the downwelling radiation computed with all-sky conditions: "
+			+ "its raster is overwritten by the following time step")
+	@Out
+	@Unit("W/m2")
+	public GridCoverage2D outDownwelling;
+
+	@Description("The map of the upwelling radiation: its raster is overwritten by the following time step")
+	@Out
+	@Unit("W/m2")
+	public GridCoverage2D outUpwelling;
+
+
+	/**
+	 * Process.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Execute
+	public void process() throws Exception {
+		checkNull(inAirTemperature, inSoilTemperature, inSkyview, model);
+
+		RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inAirTemperature);
+
+		/**Input data reading: the novalues become NaN*/
+		airTemperatureWR = mapsTransform(inAirTemperature);
+		soilTemperatureWR = mapsTransform(inSoilTemperature);
+		skyviewWR = mapsTransform(inSkyview);
+		humidityWR = (inHumidity == null) ? null : mapsTransform(inHumidity);
+		clearnessIndexWR = (inClearnessIndex == null) ? null : mapsTransform(inClearnessIndex);
+		soilEmissivityWR = (inSoilEmissivity == null) ? null : mapsTransform(inSoilEmissivity);
+
+		if (emissivity == null || !emissivity.matches(model, X, Y, Z)) {
+			emissivity = ClearSkyEmissivity.create(model, X, Y, Z);
+		}
+
+		kernels = doFastKernels ? LongwaveKernels.getInstance() : null;
+
+		int width = airTemperatureWR.getWidth();
+		int height = airTemperatureWR.getHeight();
+		downwellingWR = allocate(downwellingWR, width, height);
+		upwellingWR = allocate(upwellingWR, width, height);
+
+		getPool().invoke(new TileTask(0, 0, width, height));
+
+		outDownwelling = CoverageUtilities.buildCoverage("downwelling", downwellingWR, regionMap,
+				inAirTemperature.getCoordinateReferenceSystem());
+		outUpwelling = CoverageUtilities.buildCoverage("upwelling", upwellingWR, regionMap,
+				inAirTemperature.getCoordinateReferenceSystem());
+	}
+
+	/**
+	 * Get the pool of the threads, created at the first time step and kept by the following
+	 * ones; it is created again only if the number of threads changes.
+	 *
+	 * @return the pool of pThreads threads
+	 */
+	private ForkJoinPool getPool() {
+		int threads = Math.max(1, pThreads);
+		if (pool == null || pool.getParallelism() != threads) {
+			if (pool != null) pool.shutdown();
+			pool = new ForkJoinPool(threads);
+		}
+		return pool;
+	}
+
+	/**
+	 * Shut down the pool of the threads at the end of the simulation.
+	 */
+	@Finalize
+	public void close() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * @return the raster, or a new one if it is missing or does not have the size and the type of the maps
+	 */
+	private WritableRaster allocate(WritableRaster raster, int width, int height) {
+		int type = doFloatOutput ? DataBuffer.TYPE_FLOAT : DataBuffer.TYPE_DOUBLE;
+		if (raster != null && raster.getWidth() == width && raster.getHeight() == height
+				&& raster.getDataBuffer().getDataType() == type) {
+			return raster;
+		}
+		return Raster.createWritableRaster(new BandedSampleModel(type, width, height, 1), null);
+	}
+
+	/**
+	 * Maps reader transform the GrifCoverage2D in to the writable raster,
+	 * replace the -9999.0 value with no value.
+	 *
+	 * @param inValues: the input map values
+	 * @return the writable raster of the given map
+	 */
+	private WritableRaster mapsTransform(GridCoverage2D inValues) {
+		RenderedImage inValuesRenderedImage = inValues.getRenderedImage();
+		WritableRaster inValuesWR = CoverageUtilities.replaceNovalue(inValuesRenderedImage, -9999.0);
+		inValuesRenderedImage = null;
+		return inValuesWR;
+	}
+
+
+	/**
+	 * The task computing the radiation on a tile: the tile is split in two halves
+	 * along its longer side until it has less than {@link #CELLS_PER_TASK} cells.
+	 * The rows of the tile are read and written in blocks, and the clear sky emissivity
+	 * of a row is computed in one call.
+	 */
+	private class TileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final int x;
+		final int y;
+		final int width;
+		final int height;
+
+		TileTask(int x, int y, int width, int height) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		protected void compute() {
+			if ((long) width * height > CELLS_PER_TASK && (width > 1 || height > 1)) {
+				if (width >= height) {
+					int half = width >>> 1;
+					invokeAll(new TileTask(x, y, half, height), new TileTask(x + half, y, width - half, height));
+				} else {
+					int half = height >>> 1;
+					invokeAll(new TileTask(x, y, width, half), new TileTask(x, y + half, width, height - half));
+				}
+				return;
+			}
+
+			double[] airTemperature = new double[width];
+			double[] soilTemperature = new double[width];
+			double[] humidity = new double[width];
+			double[] clearnessIndex = new double[width];
+			double[] skyview = new double[width];
+			double[] soilEmissivity = new double[width];
+			double[] airTemperatureK = new double[width];
+			double[] vapourPressure = new double[width];
+			double[] epsilonCS = new double[width];
+			double[] downwelling = new double[width];
+			double[] upwelling = new double[width];
+
+			for (int r = y; r < y + height; r++) {
+				airTemperatureWR.getSamples(x, r, width, 1, 0, airTemperature);
+				soilTemperatureWR.getSamples(x, r, width, 1, 0, soilTemperature);
+				skyviewWR.getSamples(x, r, width, 1, 0, skyview);
+				read(humidityWR, r, humidity, pRH * 100);
+				read(clearnessIndexWR, r, clearnessIndex, 1);
+				read(soilEmissivityWR, r, soilEmissivity, epsilonS);
+
+				if (kernels != null) {
+					computeBatch(airTemperature, soilTemperature, humidity, clearnessIndex, skyview, soilEmissivity,
+							vapourPressure, epsilonCS, downwelling, upwelling);
+					upwellingWR.setSamples(x, r, width, 1, 0, upwelling);
+					downwellingWR.setSamples(x, r, width, 1, 0, downwelling);
+					continue;
+				}
+
+				/**the missing humidity and clearness index take the default values, as in lwrb*/
+				for (int i = 0; i < width; i++) {
+					if (Double.isNaN(humidity[i])) humidity[i] = pRH * 100;
+					if (Double.isNaN(clearnessIndex[i])) clearnessIndex[i] = 1;
+					airTemperatureK[i] = airTemperature[i] + 273.15;
+					vapourPressure[i] = Lwrb.vapourPressure(airTemperature[i], humidity[i] / 100);
+				}
+				emissivity.epsilon(airTemperatureK, vapourPressure, epsilonCS, 0, width);
+
+				/**if there is no value in the input data, there will be no value also in the output*/
+				for (int i = 0; i < width; i++) {
+					double up = Double.isNaN(soilTemperature[i]) ? doubleNovalue
+							: Lwrb.upwelling(soilEmissivity[i], soilTemperature[i]);
+					upwelling[i] = up;
+					downwelling[i] = Double.isNaN(airTemperature[i]) ? doubleNovalue
+							: Lwrb.downwelling(epsilonCS[i], airTemperature[i], clearnessIndex[i], skyview[i], up,
+									A_Cloud, B_Cloud);
+				}
+				upwellingWR.setSamples(x, r, width, 1, 0, upwelling);
+				downwellingWR.setSamples(x, r, width, 1, 0, downwelling);
+			}
+		}
+
+		/**
+		 * Compute a row of the tile with the batch kernels.
+		 */
+		private void computeBatch(double[] airTemperature, double[] soilTemperature, double[] humidity,
+				double[] clearnessIndex, double[] skyview, double[] soilEmissivity, double[] vapourPressure,
+				double[] epsilonCS, double[] downwelling, double[] upwelling) {
+			for (int i = 0; i < width; i++) {
+				humidity[i] = Double.isNaN(humidity[i]) ? pRH : humidity[i] / 100;
+				if (Double.isNaN(clearnessIndex[i])) clearnessIndex[i] = 1;
+			}
+			kernels.vapourPressure(airTemperature, humidity, vapourPressure, 0, width);
+			kernels.emissivity(emissivity, airTemperature, vapourPressure, epsilonCS, 0, width);
+			kernels.upwelling(soilEmissivity, soilTemperature, upwelling, 0, width);
+			kernels.downwelling(epsilonCS, airTemperature, clearnessIndex, skyview, upwelling, A_Cloud, B_Cloud,
+					downwelling, 0, width);
+		}
+
+		/**
+		 * Read a row of the tile from a map, or fill it with the default value if there is no map.
+		 */
+		private void read(WritableRaster raster, int r, double[] row, double value) {
+			if (raster == null) {
+				Arrays.fill(row, value);
+			} else {
+				raster.getSamples(x, r, width, 1, 0, row);
+			}
+		}
+	}
+
+}
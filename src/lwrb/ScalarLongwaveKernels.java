@@ -0,0 +1,107 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lwrb;
+
+/**
+ * The scalar {@link LongwaveKernels}, also used for the tails of the arrays by the
+ * Vector API kernels.
+ */
+class ScalarLongwaveKernels extends LongwaveKernels {
+
+	/** ln(10), to compute the power of ten of the Tetens formula as an exponential */
+	static final double LN10 = Math.log(10);
+
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+
+	@Override
+	public void upwelling(double[] epsilonS, double[] soilTemperature, double[] upwelling, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double t = soilTemperature[i] + 273.15;
+			double t2 = t * t;
+			upwelling[i] = epsilonS[i] * ConstBoltz * (t2 * t2);
+		}
+	}
+
+	@Override
+	public void vapourPressure(double[] airTemperature, double[] humidity, double[] e, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double t = airTemperature[i];
+			e[i] = humidity[i] * 0.611 * Math.exp(LN10 * 7.5 * t / (237.3 + t));
+		}
+	}
+
+	@Override
+	public void emissivity(ClearSkyEmissivity model, double[] airTemperature, double[] e, double[] epsilon, int from,
+			int to) {
+		double X = model.X, Y = model.Y, Z = model.Z;
+		switch (model.model) {
+		case "1":
+			for (int i = from; i < to; i++) {
+				epsilon[i] = X + Y * Math.sqrt(e[i]);
+			}
+			break;
+		case "2":
+			double y2 = Y * 1e-4;
+			for (int i = from; i < to; i++) {
+				double d = 273 - (airTemperature[i] + 273.15);
+				epsilon[i] = 1.0 - X * Math.exp(y2 * d * d);
+			}
+			break;
+		case "3":
+			double y3 = Y * 1e-4;
+			for (int i = from; i < to; i++) {
+				epsilon[i] = X + y3 * e[i] * Math.exp(1500 / (airTemperature[i] + 273.15));
+			}
+			break;
+		case "4":
+			for (int i = from; i < to; i++) {
+				double t = airTemperature[i] + 273.15;
+				double t2 = t * t;
+				epsilon[i] = X / (ConstBoltz * (t2 * t2)) + Y;
+			}
+			break;
+		case "5":
+			for (int i = from; i < to; i++) {
+				double t = airTemperature[i] + 273.15;
+				double r = t / 273.16;
+				double r3 = r * r * r;
+				double t2 = t * t;
+				epsilon[i] = (X + Y * (r3 * r3) + Z * Math.sqrt(4650 * e[i] / t / 25)) / (ConstBoltz * (t2 * t2));
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("The model " + model.model + " has no batch kernel");
+		}
+	}
+
+	@Override
+	public void downwelling(double[] epsilonCS, double[] airTemperature, double[] clearnessIndex, double[] skyview,
+			double[] upwelling, double A_Cloud, double B_Cloud, double[] downwelling, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double t = airTemperature[i] + 273.15;
+			double t2 = t * t;
+			double downwellingCS = epsilonCS[i] * ConstBoltz * (t2 * t2);
+			downwellingCS = downwellingCS * skyview[i] + upwelling[i] * (1 - skyview[i]);
+			downwelling[i] = downwellingCS * (1 + A_Cloud * Math.pow(1 - clearnessIndex[i], B_Cloud));
+		}
+	}
+
+}
@@ -92,6 +92,31 @@ public class RainSnowSeparation {
 			snowfall=(snowfall<0)?0:snowfall;
 			
 		}
+
+	/**
+	 * Process a whole time series in one pass: the i-th values are computed with the i-th inputs
+	 * and written in the i-th element of the output arrays, which must be allocated by the caller.
+	 * The values are the same given by {@link #process()}, but only the parameters of the
+	 * component are read, so the same component can process many stations at the same time.
+	 *
+	 * @param precipitation is the precipitation [mm]
+	 * @param temperature is the temperature [°C]
+	 * @param rainfall is the output array of the rainfall
+	 * @param snowfall is the output array of the snowfall
+	 */
+	public void processSeries(double[] precipitation, double[] temperature, double[] rainfall, double[] snowfall) {
+		int n = precipitation.length;
+		if (temperature.length != n || rainfall.length < n || snowfall.length < n) {
+			throw new IllegalArgumentException("The input and output arrays must have the same length");
+		}
+		for (int i = 0; i < n; i++) {
+			double rain = alfa_r * ((precipitation[i] / Math.PI) * Math.atan((temperature[i] - meltingTemperature) / m1)
+					+ precipitation[i] / 2);
+			double snow = alfa_s * (precipitation[i] - rain);
+			rainfall[i] = rain;
+			snowfall[i] = (snow < 0) ? 0 : snow;
+		}
+	}
 	}
 
 	
@@ -0,0 +1,398 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package rainSnowSperataion;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import oms3.annotations.Author;
+import oms3.annotations.Description;
+import oms3.annotations.Documentation;
+import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.Label;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Out;
+import oms3.annotations.Status;
+import oms3.annotations.Unit;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+import org.jgrasstools.gears.libs.modules.JGTModel;
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+
+@Description("The component separates the maps of the precipitation into rainfall and snowfall, "
+		+ "according to Kavetski et al. (2006), with the formulation of RainSnowSeparation applied to each pixel.")
+@Documentation("")
+@Author(name = "Marialaura Bancheri and Giuseppe Formetta", contact = "maryban@hotmail.it")
+@Keywords("Hydrology, Rain-snow separation, Raster")
+@Label(JGTConstants.HYDROGEOMORPHOLOGY)
+@Name("rainsnowseparationraster")
+@Status(Status.CERTIFIED)
+@License("General Public License Version 3 (GPLv3)")
+public class RainSnowSeparationRaster extends JGTModel {
+
+	@Description("The map of the precipitation")
+	@In
+	@Unit("mm")
+	public GridCoverage2D inPrecipitation;
+
+	@Description("The map of the temperature")
+	@In
+	@Unit("°C")
+	public GridCoverage2D inTemperature;
+
+	@Description("The map of alfa_r, or null to use alfa_r in all the pixels")
+	@In
+	public GridCoverage2D inAlfa_r;
+
+	@Description("The map of alfa_s, or null to use alfa_s in all the pixels")
+	@In
+	public GridCoverage2D inAlfa_s;
+
+	@Description("The map of m1, or null to use m1 in all the pixels")
+	@In
+	public GridCoverage2D inM1;
+
+	@Description("Alfa_r is the adjustment parameter for the rainfall measurements errors")
+	@In
+	public double alfa_r;
+
+	@Description("Alfa_s is the adjustment parameter for the snow measurements errors")
+	@In
+	public double alfa_s;
+
+	@Description("m1 is the parameter controling the degree of smoothing")
+	@In
+	public double m1 = 1.0;
+
+	@Description("The melting temperature")
+	@In
+	@Unit("°C")
+	public double meltingTemperature;
+
+	@Description("If true the arctangent is computed with the polynomial of Abramowitz and Stegun (4.4.49): "
+			+ "faster, with an error below 2e-8 rad, that is 6.4e-9 alfa_r mm for each mm of precipitation")
+	@In
+	public boolean doFastAtan = false;
+
+	@Description("If true the output maps are float rasters, otherwise double rasters")
+	@In
+	public boolean doFloatOutput = false;
+
+	@Description("The number of threads used to compute the maps")
+	@In
+	public int pThreads = Runtime.getRuntime().availableProcessors();
+
+	@Description("The number of cells below which a tile is not split further")
+	private static final int CELLS_PER_TASK = 64 * 64;
+
+	WritableRaster precipitationWR;
+	WritableRaster temperatureWR;
+	WritableRaster alfa_rWR;
+	WritableRaster alfa_sWR;
+	WritableRaster m1WR;
+
+	@Description("The raster of the rainfall, allocated at the first time step and reused by the following ones")
+	WritableRaster rainfallWR;
+
+	@Description("The raster of the snowfall, allocated at the first time step and reused by the following ones")
+	WritableRaster snowfallWR;
+
+	@Description("The pool of the threads, kept between the time steps")
+	ForkJoinPool pool;
+
+	@Description("The map of the rainfall: its raster is overwritten by the following time step")
+	@Out
+	@Unit("mm")
+	public GridCoverage2D outRainfall;
+
+	@Description("The map of the snowfall: its raster is overwritten by the following time step")
+	@Out
+	@Unit("mm")
+	public GridCoverage2D outSnowfall;
+
+
+	/**
+	 * Process.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Execute
+	public void process() throws Exception {
+		checkNull(inPrecipitation, inTemperature);
+
+		RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inPrecipitation);
+
+		/**Input data reading: the novalues become NaN*/
+		precipitationWR = mapsTransform(inPrecipitation);
+		temperatureWR = mapsTransform(inTemperature);
+		alfa_rWR = (inAlfa_r == null) ? null : mapsTransform(inAlfa_r);
+		alfa_sWR = (inAlfa_s == null) ? null : mapsTransform(inAlfa_s);
+		m1WR = (inM1 == null) ? null : mapsTransform(inM1);
+
+		int width = precipitationWR.getWidth();
+		int height = precipitationWR.getHeight();
+		rainfallWR = allocate(rainfallWR, width, height);
+		snowfallWR = allocate(snowfallWR, width, height);
+
+		getPool().invoke(new TileTask(0, 0, width, height));
+
+		outRainfall = CoverageUtilities.buildCoverage("rainfall", rainfallWR, regionMap,
+				inPrecipitation.getCoordinateReferenceSystem());
+		outSnowfall = CoverageUtilities.buildCoverage("snowfall", snowfallWR, regionMap,
+				inPrecipitation.getCoordinateReferenceSystem());
+	}
+
+	/**
+	 * Separate the precipitation of arrays of cells in parallel: the i-th values are computed
+	 * with the i-th inputs and written in the i-th element of the output arrays, which must be
+	 * allocated by the caller. Where the precipitation or the temperature is NaN, the outputs are NaN.
+	 *
+	 * @param precipitation is the precipitation [mm]
+	 * @param temperature is the temperature [°C]
+	 * @param alfa_r is alfa_r of the cells, or null to use {@link #alfa_r} in all of them
+	 * @param alfa_s is alfa_s of the cells, or null to use {@link #alfa_s} in all of them
+	 * @param m1 is m1 of the cells, or null to use {@link #m1} in all of them
+	 * @param rainfall is the output array of the rainfall
+	 * @param snowfall is the output array of the snowfall
+	 */
+	public void processArrays(double[] precipitation, double[] temperature, double[] alfa_r, double[] alfa_s,
+			double[] m1, double[] rainfall, double[] snowfall) {
+		int n = precipitation.length;
+		if (temperature.length != n || (alfa_r != null && alfa_r.length != n) || (alfa_s != null && alfa_s.length != n)
+				|| (m1 != null && m1.length != n) || rainfall.length < n || snowfall.length < n) {
+			throw new IllegalArgumentException("The input and output arrays must have the same length");
+		}
+		getPool().invoke(new RangeTask(precipitation, temperature, alfa_r, alfa_s, m1, rainfall, snowfall, 0, n));
+	}
+
+	/**
+	 * Get the pool of the threads, created at the first call and kept by the following ones;
+	 * it is created again only if the number of threads changes. It is synchronized because
+	 * {@link #processArrays} can be called by several threads.
+	 *
+	 * @return the pool of pThreads threads
+	 */
+	private synchronized ForkJoinPool getPool() {
+		int threads = Math.max(1, pThreads);
+		if (pool == null || pool.getParallelism() != threads) {
+			if (pool != null) pool.shutdown();
+			pool = new ForkJoinPool(threads);
+		}
+		return pool;
+	}
+
+	/**
+	 * Shut down the pool of the threads at the end of the simulation.
+	 */
+	@Finalize
+	public synchronized void close() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * Separate the precipitation of a range of cells. The cells without precipitation, most of
+	 * them in most of the time steps, take no rainfall and no snowfall without computing the
+	 * arctangent: the values are the same given by {@link RainSnowSeparation}.
+	 */
+	private void separate(double[] precipitation, double[] temperature, double[] alfa_r, double[] alfa_s,
+			double[] m1, double[] rainfall, double[] snowfall, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double p = precipitation[i];
+			double ar = (alfa_r == null) ? this.alfa_r : alfa_r[i];
+			double x = (temperature[i] - meltingTemperature) / ((m1 == null) ? this.m1 : m1[i]);
+			double rain;
+			if (p == 0 && x == x) {
+				rain = ar * (p / 2);
+			} else {
+				rain = ar * ((p / Math.PI) * (doFastAtan ? atan(x) : Math.atan(x)) + p / 2);
+			}
+			double snow = ((alfa_s == null) ? this.alfa_s : alfa_s[i]) * (p - rain);
+			rainfall[i] = rain;
+			snowfall[i] = (snow < 0) ? 0 : snow;
+		}
+	}
+
+	/**
+	 * The arctangent from the polynomial of Abramowitz and Stegun (4.4.49) on [0, 1], extended to
+	 * the larger arguments with atan(x) = pi/2 - atan(1/x). The error is below 2e-8 rad
+	 * (1.4e-8 measured against Math.atan); NaN and the infinities give the values of Math.atan.
+	 *
+	 * @param x is the argument
+	 * @return the arctangent of the argument
+	 */
+	static double atan(double x) {
+		double a = Math.abs(x);
+		boolean inverse = a > 1;
+		double z = inverse ? 1 / a : a;
+		double z2 = z * z;
+		double value = z * (1 + z2 * (-0.3333314528 + z2 * (0.1999355085 + z2 * (-0.1420889944 + z2 * (0.1065626393
+				+ z2 * (-0.0752896400 + z2 * (0.0429096138 + z2 * (-0.0161657367 + z2 * 0.0028662257))))))));
+		if (inverse) value = Math.PI / 2 - value;
+		return Math.copySign(value, x);
+	}
+
+	/**
+	 * @return the raster, or a new one if it is missing or does not have the size and the type of the maps
+	 */
+	private WritableRaster allocate(WritableRaster raster, int width, int height) {
+		int type = doFloatOutput ? DataBuffer.TYPE_FLOAT : DataBuffer.TYPE_DOUBLE;
+		if (raster != null && raster.getWidth() == width && raster.getHeight() == height
+				&& raster.getDataBuffer().getDataType() == type) {
+			return raster;
+		}
+		return Raster.createWritableRaster(new BandedSampleModel(type, width, height, 1), null);
+	}
+
+	/**
+	 * Maps reader transform the GrifCoverage2D in to the writable raster,
+	 * replace the -9999.0 value with no value.
+	 *
+	 * @param inValues: the input map values
+	 * @return the writable raster of the given map
+	 */
+	private WritableRaster mapsTransform(GridCoverage2D inValues) {
+		RenderedImage inValuesRenderedImage = inValues.getRenderedImage();
+		WritableRaster inValuesWR = CoverageUtilities.replaceNovalue(inValuesRenderedImage, -9999.0);
+		inValuesRenderedImage = null;
+		return inValuesWR;
+	}
+
+
+	/**
+	 * The task separating the precipitation of a range of cells of arrays: the range is split
+	 * in two halves until it has less than {@link #CELLS_PER_TASK} cells.
+	 */
+	private class RangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final double[] precipitation;
+		final double[] temperature;
+		final double[] alfa_r;
+		final double[] alfa_s;
+		final double[] m1;
+		final double[] rainfall;
+		final double[] snowfall;
+		final int from;
+		final int to;
+
+		RangeTask(double[] precipitation, double[] temperature, double[] alfa_r, double[] alfa_s, double[] m1,
+				double[] rainfall, double[] snowfall, int from, int to) {
+			this.precipitation = precipitation;
+			this.temperature = temperature;
+			this.alfa_r = alfa_r;
+			this.alfa_s = alfa_s;
+			this.m1 = m1;
+			this.rainfall = rainfall;
+			this.snowfall = snowfall;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CELLS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RangeTask(precipitation, temperature, alfa_r, alfa_s, m1, rainfall, snowfall, from, middle),
+						new RangeTask(precipitation, temperature, alfa_r, alfa_s, m1, rainfall, snowfall, middle, to));
+				return;
+			}
+			separate(precipitation, temperature, alfa_r, alfa_s, m1, rainfall, snowfall, from, to);
+		}
+	}
+
+	/**
+	 * The task separating the precipitation of a tile: the tile is split in two halves
+	 * along its longer side until it has less than {@link #CELLS_PER_TASK} cells.
+	 * The rows of the tile are read, separated and written in blocks.
+	 */
+	private class TileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final int x;
+		final int y;
+		final int width;
+		final int height;
+
+		TileTask(int x, int y, int width, int height) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		protected void compute() {
+			if ((long) width * height > CELLS_PER_TASK && (width > 1 || height > 1)) {
+				if (width >= height) {
+					int half = width >>> 1;
+					invokeAll(new TileTask(x, y, half, height), new TileTask(x + half, y, width - half, height));
+				} else {
+					int half = height >>> 1;
+					invokeAll(new TileTask(x, y, width, half), new TileTask(x, y + half, width, height - half));
+				}
+				return;
+			}
+
+			double[] precipitation = new double[width];
+			double[] temperature = new double[width];
+			double[] alfa_r = (alfa_rWR == null) ? null : new double[width];
+			double[] alfa_s = (alfa_sWR == null) ? null : new double[width];
+			double[] m1 = (m1WR == null) ? null : new double[width];
+			double[] rainfall = new double[width];
+			double[] snowfall = new double[width];
+
+			for (int r = y; r < y + height; r++) {
+				precipitationWR.getSamples(x, r, width, 1, 0, precipitation);
+				temperatureWR.getSamples(x, r, width, 1, 0, temperature);
+				if (alfa_r != null) alfa_rWR.getSamples(x, r, width, 1, 0, alfa_r);
+				if (alfa_s != null) alfa_sWR.getSamples(x, r, width, 1, 0, alfa_s);
+				if (m1 != null) m1WR.getSamples(x, r, width, 1, 0, m1);
+
+				separate(precipitation, temperature, alfa_r, alfa_s, m1, rainfall, snowfall, 0, width);
+
+				/**if there is no value in the input data, there will be no value also in the output*/
+				for (int i = 0; i < width; i++) {
+					if (Double.isNaN(rainfall[i])) rainfall[i] = doubleNovalue;
+					if (Double.isNaN(snowfall[i])) snowfall[i] = doubleNovalue;
+				}
+				rainfallWR.setSamples(x, r, width, 1, 0, rainfall);
+				snowfallWR.setSamples(x, r, width, 1, 0, snowfall);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,360 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package snowMelting;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A checkpoint of the state of many snowpacks (the cells of a {@link SnowpackGrid} or the
+ * stations of an ensemble): the solid water, the liquid water and the SWE of each snowpack,
+ * with the instant of the state and a hash of the parameters which produced it, so a run
+ * can be restarted from it only with the same parameters.
+ * <p>
+ * The file is a header followed by the three arrays, as little endian doubles:
+ * <pre>
+ * int magic, int version, long time [ms], long hash of the parameters, int snowpacks, int padding
+ * double[snowpacks] solid, double[snowpacks] liquid, double[snowpacks] SWE
+ * </pre>
+ * A checkpoint is read by memory mapping the file, so restarting costs a copy of the state.
+ * It is written to a temporary file and then renamed, so a crash while writing leaves the
+ * previous checkpoint untouched; the {@link Writer} writes in the background, from a copy of
+ * the state taken when the checkpoint is asked.
+ */
+public final class SnowCheckpoint {
+
+	static final int MAGIC = 0x534E4F57;
+
+	static final int VERSION = 1;
+
+	/** The size of the header */
+	static final int HEADER = 32;
+
+	/** The offset and the prime of the FNV hash of the parameters */
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/** The instant of the state [ms from the epoch] */
+	public final long time;
+
+	/** The hash of the parameters */
+	public final long parameterHash;
+
+	/** The number of snowpacks */
+	public final int size;
+
+	/** The mapped arrays of the state */
+	private final DoubleBuffer solid;
+	private final DoubleBuffer liquid;
+	private final DoubleBuffer SWE;
+
+
+	private SnowCheckpoint(long time, long parameterHash, int size, ByteBuffer data) {
+		this.time = time;
+		this.parameterHash = parameterHash;
+		this.size = size;
+		DoubleBuffer values = data.asDoubleBuffer();
+		solid = slice(values, 0, size);
+		liquid = slice(values, size, size);
+		SWE = slice(values, 2 * size, size);
+	}
+
+	private static DoubleBuffer slice(DoubleBuffer values, int from, int size) {
+		DoubleBuffer view = values.duplicate();
+		view.position(from);
+		view.limit(from + size);
+		return view.slice();
+	}
+
+	/**
+	 * Map a checkpoint.
+	 *
+	 * @param file is the file of the checkpoint
+	 * @return the checkpoint
+	 * @throws IOException if the file is not a complete checkpoint
+	 */
+	public static SnowCheckpoint read(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			if (channel.size() < HEADER) {
+				throw new IOException("Not a snow checkpoint: " + file);
+			}
+			ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not a snow checkpoint: " + file);
+			}
+			long time = header.getLong();
+			long hash = header.getLong();
+			int size = header.getInt();
+			long length = 3L * size * 8;
+			if (channel.size() != HEADER + length) {
+				throw new IOException("The snow checkpoint is truncated: " + file);
+			}
+			// the mapping stays valid after the file is closed
+			ByteBuffer data = channel.map(MapMode.READ_ONLY, HEADER, length).order(ByteOrder.LITTLE_ENDIAN);
+			return new SnowCheckpoint(time, hash, size, data);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * @return the solid water of the snowpacks [mm]
+	 */
+	public DoubleBuffer solid() {
+		return solid.duplicate();
+	}
+
+	/**
+	 * @return the liquid water of the snowpacks [mm]
+	 */
+	public DoubleBuffer liquid() {
+		return liquid.duplicate();
+	}
+
+	/**
+	 * @return the SWE of the snowpacks [mm]
+	 */
+	public DoubleBuffer SWE() {
+		return SWE.duplicate();
+	}
+
+	/**
+	 * Restore the state of a grid.
+	 *
+	 * @param grid is the grid, with the parameters of the checkpoint
+	 * @throws IllegalArgumentException if the grid has another size or other parameters
+	 */
+	public void restore(SnowpackGrid grid) {
+		if (grid.size() != size || parameterHash(grid) != parameterHash) {
+			throw new IllegalArgumentException("The checkpoint was written by a grid with other size or parameters");
+		}
+		solid().get(grid.solid);
+		liquid().get(grid.liquid);
+		SWE().get(grid.SWE);
+		grid.updateActiveSet();
+	}
+
+	/**
+	 * Restore the state of a snowpack, as in {@link SnowMelting#processSeries}.
+	 *
+	 * @param index is the index of the snowpack
+	 * @param state is the state to set
+	 * @param expectedHash is the hash of the parameters of the snowpacks to restart
+	 * @throws IllegalArgumentException if the checkpoint was written with other parameters
+	 */
+	public void restore(int index, double[] state, long expectedHash) {
+		if (expectedHash != parameterHash) {
+			throw new IllegalArgumentException("The checkpoint was written with other parameters");
+		}
+		state[SnowMelting.SOLID] = solid.get(index);
+		state[SnowMelting.LIQUID] = liquid.get(index);
+		state[SnowMelting.PREVIOUS_SWE] = SWE.get(index);
+	}
+
+	/**
+	 * Restore the state of the snowpack of a component, as in {@link SnowMelting#processSeries}.
+	 *
+	 * @param component is the component, with the parameters of the checkpoint
+	 * @param index is the index of the snowpack
+	 * @param state is the state to set
+	 * @throws IllegalArgumentException if the component has other parameters
+	 */
+	public void restore(SnowMelting component, int index, double[] state) {
+		restore(index, state, parameterHash(component));
+	}
+
+	/**
+	 * @return the hash of the model and of the parameters of all the cells of a grid
+	 */
+	public static long parameterHash(SnowpackGrid grid) {
+		long hash = hash(FNV_OFFSET, grid.model);
+		hash = hash(hash, grid.width);
+		hash = hash(hash, grid.height);
+		for (double[] parameter : new double[][] { grid.meltingTemperature, grid.combinedMeltingFactor,
+				grid.radiationFactor, grid.freezingFactor, grid.alfa_l, grid.skyview }) {
+			for (double value : parameter) {
+				hash = hash(hash, Double.doubleToLongBits(value));
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the hash of the model and of the parameters of a component, the same hashed for
+	 *         each cell of a grid
+	 */
+	public static long parameterHash(SnowMelting component) {
+		long hash = hash(FNV_OFFSET, component.model);
+		for (double value : new double[] { component.meltingTemperature, component.combinedMeltingFactor,
+				component.radiationFactor, component.freezingFactor, component.alfa_l, component.skyview }) {
+			hash = hash(hash, Double.doubleToLongBits(value));
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, String text) {
+		for (byte b : String.valueOf(text).getBytes(StandardCharsets.UTF_8)) {
+			hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, long value) {
+		// a word at a time, to hash the parameters of large grids quickly
+		hash = (hash ^ value) * FNV_PRIME;
+		return hash ^ (hash >>> 29);
+	}
+
+	/**
+	 * Write a checkpoint, to a temporary file renamed at the end.
+	 *
+	 * @param file is the file of the checkpoint
+	 * @param time is the instant of the state [ms]
+	 * @param parameterHash is the hash of the parameters
+	 * @param solid is the solid water of the snowpacks [mm]
+	 * @param liquid is the liquid water of the snowpacks [mm]
+	 * @param SWE is the SWE of the snowpacks [mm]
+	 * @throws IOException
+	 */
+	public static void write(File file, long time, long parameterHash, double[] solid, double[] liquid, double[] SWE)
+			throws IOException {
+		int size = solid.length;
+		if (liquid.length != size || SWE.length != size) {
+			throw new IllegalArgumentException("The arrays of the state must have the same length");
+		}
+		File temporary = new File(file.getPath() + ".tmp");
+		RandomAccessFile output = new RandomAccessFile(temporary, "rw");
+		try {
+			FileChannel channel = output.getChannel();
+			channel.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putLong(time).putLong(parameterHash).putInt(size).putInt(0);
+			header.flip();
+			write(channel, header);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+			for (double[] values : new double[][] { solid, liquid, SWE }) {
+				for (int i = 0; i < size;) {
+					buffer.clear();
+					int n = Math.min(size - i, buffer.capacity() / 8);
+					buffer.asDoubleBuffer().put(values, i, n);
+					buffer.limit(n * 8);
+					write(channel, buffer);
+					i += n;
+				}
+			}
+			channel.force(true);
+		} finally {
+			output.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void write(FileChannel channel, ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+
+	/**
+	 * A writer of checkpoints in a background thread: the state is copied when a
+	 * checkpoint is asked and written while the run goes on.
+	 */
+	public static final class Writer implements Closeable {
+
+		private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "snow-checkpoint");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		/**
+		 * Write a checkpoint of a grid.
+		 *
+		 * @param file is the file of the checkpoint
+		 * @param time is the instant of the state [ms]
+		 * @param grid is the grid
+		 * @return the future completed when the checkpoint is on disk
+		 */
+		public Future<File> write(File file, long time, SnowpackGrid grid) {
+			return write(file, time, parameterHash(grid), grid.solid, grid.liquid, grid.SWE);
+		}
+
+		/**
+		 * Write a checkpoint of many snowpacks.
+		 *
+		 * @param file is the file of the checkpoint
+		 * @param time is the instant of the state [ms]
+		 * @param parameterHash is the hash of the parameters
+		 * @param solid is the solid water of the snowpacks [mm]
+		 * @param liquid is the liquid water of the snowpacks [mm]
+		 * @param SWE is the SWE of the snowpacks [mm]
+		 * @return the future completed when the checkpoint is on disk
+		 */
+		public Future<File> write(final File file, final long time, final long parameterHash, double[] solid,
+				double[] liquid, double[] SWE) {
+			final double[] solidCopy = solid.clone();
+			final double[] liquidCopy = liquid.clone();
+			final double[] SWECopy = SWE.clone();
+			return executor.submit(new Callable<File>() {
+				@Override
+				public File call() throws IOException {
+					SnowCheckpoint.write(file, time, parameterHash, solidCopy, liquidCopy, SWECopy);
+					return file;
+				}
+			});
+		}
+
+		/**
+		 * Wait for the checkpoints still being written and stop the thread.
+		 */
+		@Override
+		public void close() throws IOException {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while writing the checkpoints", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,299 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package snowMelting;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ensemble.GoodnessOfFit;
+import oms3.annotations.Author;
+import oms3.annotations.Description;
+import oms3.annotations.Documentation;
+import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Out;
+import oms3.annotations.Status;
+import oms3.annotations.Unit;
+
+/**
+ * A Monte Carlo ensemble of {@link SnowMelting} runs: many parameter sets, sampled from
+ * uniform distributions with a seeded generator, run on the same forcing and scored against
+ * an observed series, as in the GLUE analysis of the uncertainty.
+ * <p>
+ * The forcing is held once, in the arrays of the inputs, and the members are advanced
+ * together, time step after time step, in blocks of {@link #MEMBERS_PER_TASK} members whose
+ * states are arrays: the blocks are spread over the threads of a work-stealing pool. The
+ * trajectories are not stored: the skill scores of each member (NSE, KGE and RMSE) are
+ * accumulated while the time steps go on. Each member is advanced with the mass balance of
+ * {@link SnowpackGrid} and gives the same values of a {@link SnowMelting} with its
+ * parameters, processing the same series.
+ */
+@Description("The component runs a Monte Carlo ensemble of the snow model, with parameter sets sampled "
+		+ "from uniform distributions, and scores each member against the observed series.")
+@Documentation("")
+@Author(name = "Marialaura Bancheri & Giuseppe Formetta", contact = "maryban@hotmail.it")
+@Keywords("Hydrology, Snow Model, Uncertainty")
+@Name("snowensemble")
+@Status(Status.CERTIFIED)
+@License("General Public License Version 3 (GPLv3)")
+public class SnowEnsemble {
+
+	@Description("The rainfall input series")
+	@In
+	@Unit("mm")
+	public double[] rainfall;
+
+	@Description("The snowfall input series")
+	@In
+	@Unit("mm")
+	public double[] snowfall;
+
+	@Description("The shortwave radiation input series, null if the model does not use it")
+	@In
+	@Unit("W/m2")
+	public double[] shortwaveRadiation;
+
+	@Description("The temperature input series")
+	@In
+	@Unit("°C")
+	public double[] temperature;
+
+	@Description("The energy index input series, null if the model does not use it")
+	@In
+	@Unit("W/m2")
+	public double[] EI;
+
+	@Description("The skyview factor")
+	@In
+	@Unit("-")
+	public double skyview;
+
+	@Description("It is possibile to chose between 3 different models to compute the melting: "
+			+ " Classical; Cazorzi; Hoock")
+	@In
+	public String model;
+
+	@Description("Initial condition for solid water")
+	@In
+	@Unit("mm")
+	public double initialConditionSolid;
+
+	@Description("Initial condition for liquid water")
+	@In
+	@Unit("mm")
+	public double initialConditionLiquid;
+
+	@Description("The observed series, NaN where it is missing")
+	@In
+	@Unit("mm")
+	public double[] observed;
+
+	@Description("The simulated series compared with the observed one: SWE or meltingDischarge")
+	@In
+	public String pTarget = "SWE";
+
+	@Description("The lower bounds of the parameters, by index")
+	@In
+	public double[] lower = { -1, 0.05, 0, 0, 0 };
+
+	@Description("The upper bounds of the parameters, by index")
+	@In
+	public double[] upper = { 2, 0.5, 0.002, 0.1, 0.2 };
+
+	@Description("The number of members")
+	@In
+	public int pMembers = 10000;
+
+	@Description("The seed of the sampling")
+	@In
+	public long pSeed = 1;
+
+	@Description("The number of threads running the members")
+	@In
+	public int pThreads = Runtime.getRuntime().availableProcessors();
+
+	@Description("The parameters of the members, by member and index")
+	@Out
+	public double[][] outParameters;
+
+	@Description("The Nash-Sutcliffe efficiency of the members")
+	@Out
+	public double[] outNSE;
+
+	@Description("The Kling-Gupta efficiency of the members")
+	@Out
+	public double[] outKGE;
+
+	@Description("The root mean square error of the members")
+	@Out
+	@Unit("mm")
+	public double[] outRMSE;
+
+	/** The indices of the sampled parameters */
+	public static final int MELTING_TEMPERATURE = 0, COMBINED_MELTING_FACTOR = 1, RADIATION_FACTOR = 2,
+			FREEZING_FACTOR = 3, ALFA_L = 4, PARAMETERS = 5;
+
+	/** The number of members below which a task is not split further */
+	private static final int MEMBERS_PER_TASK = 64;
+
+	/** The pool of the threads, kept between the runs */
+	private ForkJoinPool pool;
+
+
+	/**
+	 * Sample the parameters and run all the members.
+	 */
+	@Execute
+	public void process() {
+		int n = temperature.length;
+		if (rainfall.length != n || snowfall.length != n || observed.length != n
+				|| (shortwaveRadiation != null && shortwaveRadiation.length != n) || (EI != null && EI.length != n)) {
+			throw new IllegalArgumentException("The input arrays must have the same length");
+		}
+		if (!pTarget.equals("SWE") && !pTarget.equals("meltingDischarge")) {
+			throw new IllegalArgumentException("Unknown target: " + pTarget);
+		}
+		int melting = SnowpackGrid.modelIndex(model);
+
+		// the scores are accumulated about the mean of the observed series
+		double shift = GoodnessOfFit.mean(observed);
+
+		// the sampling is sequential, so the members do not depend on the number of threads
+		Random random = new Random(pSeed);
+		outParameters = new double[pMembers][PARAMETERS];
+		for (int k = 0; k < pMembers; k++) {
+			for (int p = 0; p < PARAMETERS; p++) {
+				outParameters[k][p] = lower[p] + random.nextDouble() * (upper[p] - lower[p]);
+			}
+		}
+		outNSE = new double[pMembers];
+		outKGE = new double[pMembers];
+		outRMSE = new double[pMembers];
+
+		int threads = Math.max(1, pThreads);
+		if (pool == null || pool.getParallelism() != threads) {
+			if (pool != null) pool.shutdown();
+			pool = new ForkJoinPool(threads);
+		}
+		pool.invoke(new MembersTask(melting, shift, 0, pMembers));
+	}
+
+	/**
+	 * Shut down the pool of the threads at the end of the simulation.
+	 */
+	@Finalize
+	public void close() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * Run a block of members on the whole series and compute their scores.
+	 */
+	private void run(int melting, double shift, int first, int last) {
+		int m = last - first;
+		double[] meltingTemperature = new double[m];
+		double[] combinedMeltingFactor = new double[m];
+		double[] radiationFactor = new double[m];
+		double[] freezingFactor = new double[m];
+		double[] alfa_l = new double[m];
+		double[] solid = new double[m];
+		double[] liquid = new double[m];
+		double[] SWE = new double[m];
+		for (int k = 0; k < m; k++) {
+			double[] parameters = outParameters[first + k];
+			meltingTemperature[k] = parameters[MELTING_TEMPERATURE];
+			combinedMeltingFactor[k] = parameters[COMBINED_MELTING_FACTOR];
+			radiationFactor[k] = parameters[RADIATION_FACTOR];
+			freezingFactor[k] = parameters[FREEZING_FACTOR];
+			alfa_l[k] = parameters[ALFA_L];
+			solid[k] = initialConditionSolid;
+			liquid[k] = initialConditionLiquid;
+		}
+		boolean discharge = pTarget.equals("meltingDischarge");
+
+		GoodnessOfFit[] scores = new GoodnessOfFit[m];
+		for (int k = 0; k < m; k++) {
+			scores[k] = new GoodnessOfFit(shift);
+		}
+
+		for (int i = 0; i < temperature.length; i++) {
+			double rain = rainfall[i];
+			double snow = snowfall[i];
+			double t = temperature[i];
+			double shortwave = (shortwaveRadiation == null) ? 0 : shortwaveRadiation[i];
+			double energyIndex = (EI == null) ? 0 : EI[i];
+			double o = observed[i];
+
+			for (int k = 0; k < m; k++) {
+				double mt = meltingTemperature[k];
+				double potential = (t > mt) ? SnowpackGrid.potential(melting, t, mt, combinedMeltingFactor[k],
+						radiationFactor[k], shortwave, energyIndex, skyview) : 0;
+				double meltingDischarge = SnowpackGrid.balance(solid, liquid, SWE, k, rain, snow, t, mt,
+						freezingFactor[k], potential, alfa_l[k]);
+				scores[k].add(discharge ? meltingDischarge : SWE[k], o);
+			}
+		}
+
+		for (int k = 0; k < m; k++) {
+			outNSE[first + k] = scores[k].nse();
+			outKGE[first + k] = scores[k].kge();
+			outRMSE[first + k] = scores[k].rmse();
+		}
+	}
+
+
+	/**
+	 * The task running a range of members: the range is split in two halves
+	 * until it is smaller than {@link #MEMBERS_PER_TASK}.
+	 */
+	private class MembersTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final int melting;
+		final double shift;
+		final int first;
+		final int last;
+
+		MembersTask(int melting, double shift, int first, int last) {
+			this.melting = melting;
+			this.shift = shift;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			if (last - first > MEMBERS_PER_TASK) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new MembersTask(melting, shift, first, middle), new MembersTask(melting, shift, middle, last));
+				return;
+			}
+			run(melting, shift, first, last);
+		}
+	}
+
+}
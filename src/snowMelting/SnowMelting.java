@@ -108,9 +108,6 @@ public class SnowMelting {
 	@In
 	public double initialConditionLiquid;
 
-	SnowModel snowModel;
-
-
 	@Description("liquid water value obtained from the soultion of the budget")
 	double liquidWater;
 
@@ -127,6 +124,21 @@ public class SnowMelting {
 	@Unit("mm")
 	double meltingDischarge;
 
+	/** The index of the solid water in the state of the snowpack */
+	public static final int SOLID = 0;
+
+	/** The index of the liquid water in the state of the snowpack */
+	public static final int LIQUID = 1;
+
+	/** The index of the SWE of the previous time step, which bounds the melting, in the state of the snowpack */
+	public static final int PREVIOUS_SWE = 2;
+
+	/** The size of the state of the snowpack */
+	public static final int STATE_SIZE = 3;
+
+	@Description("The state of the snowpack, reused at each time step")
+	double[] state = new double[STATE_SIZE];
+
 
 	/**
 	 * Process.
@@ -136,28 +148,89 @@ public class SnowMelting {
 	@Execute
 	public void process() throws Exception { 
 
-		double freezing=(temperature<meltingTemperature)?computeFreezing():0;
-		double melting=(temperature>meltingTemperature)?computeMelting():0;
-		double solidWater=computeSolidWater(initialConditionSolid,freezing, melting);
-		computeLiquidWater(initialConditionLiquid, freezing, melting);
-		
-		meltingDischarge=computeMeltingDischarge(solidWater);
-		SWE=computeSWE(solidWater);
+		state[SOLID]=initialConditionSolid;
+		state[LIQUID]=initialConditionLiquid;
+		state[PREVIOUS_SWE]=SWE;
+
+		meltingDischarge=step(rainfall, snowfall, shortwaveRadiation, temperature, skyview, EI, state);
+
+		liquidWater=state[LIQUID];
+		SWE=state[PREVIOUS_SWE];
+		initialConditionSolid=state[SOLID];
+		initialConditionLiquid=state[LIQUID];
+	}
+
+	/**
+	 * Process a whole time series of a snowpack, starting from the given state. The values are the
+	 * same given by {@link #process()}, but only the parameters of the component are read: the
+	 * inputs, the state and the outputs are in the arrays, so the same component can process
+	 * many snowpacks at the same time.
+	 *
+	 * @param skyview is the skyview factor of the point
+	 * @param rainfall is the rainfall [mm]
+	 * @param snowfall is the snowfall [mm]
+	 * @param shortwaveRadiation is the shortwave radiation [W/m2], null if the model does not use it
+	 * @param temperature is the temperature [°C]
+	 * @param EI is the energy index, null if the model does not use it
+	 * @param state is the state of the snowpack, at {@link #SOLID}, {@link #LIQUID} and
+	 *        {@link #PREVIOUS_SWE}: the initial conditions, updated to the last time step
+	 * @param SWE is the output array of the snow water equivalent
+	 * @param meltingDischarge is the output array of the melting discharge
+	 */
+	public void processSeries(double skyview, double[] rainfall, double[] snowfall, double[] shortwaveRadiation,
+			double[] temperature, double[] EI, double[] state, double[] SWE, double[] meltingDischarge) {
+
+		int n = temperature.length;
+		if (rainfall.length != n || snowfall.length != n || (shortwaveRadiation != null && shortwaveRadiation.length != n)
+				|| (EI != null && EI.length != n) || SWE.length < n || meltingDischarge.length < n) {
+			throw new IllegalArgumentException("The input and output arrays must have the same length");
+		}
+
+		for (int i = 0; i < n; i++) {
+			meltingDischarge[i] = step(rainfall[i], snowfall[i], (shortwaveRadiation == null) ? 0 : shortwaveRadiation[i],
+					temperature[i], skyview, (EI == null) ? 0 : EI[i], state);
+			SWE[i] = state[PREVIOUS_SWE];
+		}
+	}
+
+	/**
+	 * Advance the snowpack of a time step, solving the mass balance of the solid and the liquid water.
+	 *
+	 * @param state is the state of the snowpack, updated to the end of the time step
+	 * @return the melting discharge
+	 */
+	private double step(double rainfall, double snowfall, double shortwaveRadiation, double temperature,
+			double skyview, double EI, double[] state) {
+
+		double freezing=(temperature<meltingTemperature)?computeFreezing(temperature):0;
+		double melting=(temperature>meltingTemperature)?
+				computeMelting(temperature, skyview, shortwaveRadiation, EI, state[PREVIOUS_SWE]):0;
+		double solidWater=computeSolidWater(state[SOLID], snowfall, freezing, melting);
+		double liquidWater=computeLiquidWater(state[LIQUID], rainfall, freezing, melting);
+
+		// the liquid water that exceeds the maximum amount of liquid water in the snow pack becomes
+		// snowmelt discharge
+		double maxLiquidWater = alfa_l * solidWater;
+		double melting_discharge=0;
+		if (liquidWater > maxLiquidWater) {
+			melting_discharge = liquidWater - maxLiquidWater;
+		}
+		liquidWater=Math.min(maxLiquidWater, liquidWater);
 
-		initialConditionSolid=solidWater;
-		initialConditionLiquid=liquidWater;
+		state[SOLID]=solidWater;
+		state[LIQUID]=liquidWater;
+		state[PREVIOUS_SWE]=solidWater+liquidWater;
+		return melting_discharge;
 	}
 
 
 	/**
 	 * Compute the freezing rate.
 	 *
-	 * @param freezingFactor is the freezing factor
 	 * @param temperature is the actual temperature
-	 * @param meltingTemperature is the melting temperature
 	 * @return the double value of the freezing rate
 	 */
-	private double computeFreezing(){
+	private double computeFreezing(double temperature){
 		// compute the freezing
 		return freezingFactor*(meltingTemperature-temperature);		
 	}
@@ -166,38 +239,37 @@ public class SnowMelting {
 	/**
 	 * Compute the melting rate according to the model used.
 	 *
-	 * @param model is the string containing the name of the model chosen 
-	 * @param combinedMeltingFactor is the combined melting factor
 	 * @param temperature is the input temperature
-	 * @param meltingTemperature is the melting temperature
 	 * @param skyview is the the skyview factor value
-	 * @param radiationFactor is the radiation factor
 	 * @param shortwaveRadiation is the shortwave radiation
+	 * @param EI is the energy index
+	 * @param previousSWE is the snow water equivalent of the previous time step
 	 * @return the double value of the melting rate
 	 */
 	
-	private double computeMelting(){
+	private double computeMelting(double temperature, double skyview, double shortwaveRadiation, double EI,
+			double previousSWE){
 		// compute the snowmelt rate
-		snowModel=SimpleModelFactory.createModel(model, combinedMeltingFactor, temperature, meltingTemperature, 
+		SnowModel snowModel=SimpleModelFactory.createModel(model, combinedMeltingFactor, temperature, meltingTemperature, 
 				skyview, radiationFactor, shortwaveRadiation,EI);
 		
-		return Math.min(snowModel.snowValues(), SWE);				
+		return Math.min(snowModel.snowValues(), previousSWE);				
 	}
 	
 	
 	/**
 	 * Compute the Solid Water solving the differential equation of the mass balance.
 	 * @param initialConditionSolidWater is the value of the liquid water at the previous time step
+	 * @param snowfall is the snowfall
 	 * @param freezing is the freezing rate
 	 * @param melting is the melting rate
 	 * @return the double value of Solid Water
 	 */
-	private double computeSolidWater(double initialConditionSolidWater, double freezing, double melting){
+	private double computeSolidWater(double initialConditionSolidWater, double snowfall, double freezing, double melting){
 		// solve the differential equation for the solid water
 		double solidWater=initialConditionSolidWater+ dt * (snowfall + freezing - melting);  
 		if (solidWater<0){ 
 			solidWater=0; 
-			melting=0;
 		}	
 		return solidWater;	
 	}
@@ -205,50 +277,16 @@ public class SnowMelting {
 	/**
 	 * Compute the Liquid Water solving the differential equation of the mass balance.
 	 * @param initialConditionLiquidWater is the value of the liquid water at the previous time step
+	 * @param rainfall is the rainfall
 	 * @param freezing is the freezing rate
 	 * @param melting is the melting rate
 	 * @return the double value of Liquid Water
 	 */
-	void computeLiquidWater(double initialConditionLiquidWater, double freezing, double melting){
+	private double computeLiquidWater(double initialConditionLiquidWater, double rainfall, double freezing, double melting){
 		// solve the differential equation for the liquid water
-		liquidWater=initialConditionLiquidWater+ dt * (rainfall - freezing + melting); 
+		double liquidWater=initialConditionLiquidWater+ dt * (rainfall - freezing + melting); 
 		if (liquidWater<0) liquidWater=0;	
+		return liquidWater;
 	}
-	
-	/**
-	 * Compute the melting discharge: the liquid water that exceeds
-     * the maximum amount of liquid water in the snow pack becomes
-     * snowmelt discharge.
-	 * 
-	 * @param solidWater is the solid water 
-	 * @return the double value of the melting discharge
-	 */
-	private double computeMeltingDischarge(double solidWater){
-		// compute the maximum value of the liquid water
-		double maxLiquidWater = alfa_l * solidWater;
-		
-		// compute the melting discharge
-		double melting_discharge=0;
-		if (liquidWater > maxLiquidWater) {
-			melting_discharge = liquidWater - maxLiquidWater;		
-		}
-	
-		liquidWater=Math.min(maxLiquidWater, liquidWater);
-		
-		return melting_discharge;
-	}
-
-
-	/**
-	 * Compute the snow water equivalent.
-	 * @param solidWater is the solid water 
-	 * @return the double value of the snow water equivalent
-	 */
-	private double computeSWE(double solidWater){
-		SWE=solidWater+liquidWater;
-		return SWE;
-
-	}
-
 
-}
\ No newline at end of file
+}
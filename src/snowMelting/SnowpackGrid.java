@@ -0,0 +1,461 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package snowMelting;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The snowpacks of all the cells of a grid, advanced together time step after time step with
+ * the mass balance of {@link SnowMelting}.
+ * <p>
+ * The state and the parameters are flat arrays with a value per cell, in row-major order:
+ * a cell of the grid gives, at each time step, the same values of a {@link SnowMelting}
+ * component with the parameters of the cell, processing the same inputs. The blocks of rows
+ * are advanced in parallel.
+ * <p>
+ * Only the cells with snow, the active cells, are advanced with the whole mass balance: they
+ * are kept in a compact list of indices for each block of rows. A cell with no solid and no
+ * liquid water, no snowfall and a temperature not below the melting one stays empty and its
+ * melting discharge is its rainfall: only its snowfall, temperature and rainfall are read, if
+ * its melting factors are not negative, since the melting of an empty pack is bounded by its
+ * SWE of 0. A cell joins the active set when the balance would give it some water (snowfall,
+ * freezing, or a NaN input) and leaves it when its pack is depleted, so in the snow-free
+ * months a step costs a scan of three inputs.
+ * <p>
+ * The grid owns a pool of threads: it must be closed when it is no longer used.
+ */
+public class SnowpackGrid implements Closeable {
+
+	/** The melting models */
+	static final int CLASSICAL = 0, CAZORZI = 1, HOOCK = 2;
+
+	/** The number of rows of a block, advanced by a single task */
+	private static final int ROWS_PER_TASK = 16;
+
+	/** The integration interval, as in {@link SnowMelting} */
+	private static final double dt = 1;
+
+	/** The number of columns */
+	public final int width;
+
+	/** The number of rows */
+	public final int height;
+
+	/** The solid water of the cells [mm] */
+	public final double[] solid;
+
+	/** The liquid water of the cells [mm] */
+	public final double[] liquid;
+
+	/** The SWE of the cells at the last time step, which bounds the melting of the next one [mm] */
+	public final double[] SWE;
+
+	/** The melting model: Classical, Cazorzi or Hoock */
+	public String model;
+
+	/** The melting temperature of the cells [°C] */
+	public final double[] meltingTemperature;
+
+	/** The combined melting factor of the cells */
+	public final double[] combinedMeltingFactor;
+
+	/** The radiation factor of the cells */
+	public final double[] radiationFactor;
+
+	/** The freezing factor of the cells */
+	public final double[] freezingFactor;
+
+	/** The coefficient of the maximum liquid water of the cells */
+	public final double[] alfa_l;
+
+	/** The skyview factor of the cells */
+	public final double[] skyview;
+
+	/**
+	 * The active cells, whose pack is not empty: it must be updated with
+	 * {@link #updateActiveSet()} after the state arrays are changed from outside
+	 */
+	final boolean[] active;
+
+	/** The indices of the active cells of each block of {@link #ROWS_PER_TASK} rows */
+	private final int[][] activeList;
+
+	/** The number of active cells of each block of rows */
+	private final int[] activeCount;
+
+	/**
+	 * The cells whose melting factors are all not negative, so an empty pack cannot gain
+	 * water from the melting: it must be updated with {@link #updateParameters()} after the
+	 * parameter arrays are changed from outside, and a cell not flagged is always advanced
+	 * with the whole mass balance
+	 */
+	final boolean[] nonNegativeMelting;
+
+	/** The number of active cells after the last step */
+	private final AtomicInteger activeCells = new AtomicInteger();
+
+	/** The pool of the threads */
+	private final ForkJoinPool pool;
+
+
+	/**
+	 * Create the grid, with no snow.
+	 *
+	 * @param width is the number of columns
+	 * @param height is the number of rows
+	 * @param threads is the number of threads
+	 */
+	public SnowpackGrid(int width, int height, int threads) {
+		this.width = width;
+		this.height = height;
+		int cells = width * height;
+		solid = new double[cells];
+		liquid = new double[cells];
+		SWE = new double[cells];
+		meltingTemperature = new double[cells];
+		combinedMeltingFactor = new double[cells];
+		radiationFactor = new double[cells];
+		freezingFactor = new double[cells];
+		alfa_l = new double[cells];
+		skyview = new double[cells];
+		active = new boolean[cells];
+		nonNegativeMelting = new boolean[cells];
+		int blocks = (height + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+		activeList = new int[blocks][];
+		for (int b = 0; b < blocks; b++) {
+			activeList[b] = new int[(Math.min(height, (b + 1) * ROWS_PER_TASK) - b * ROWS_PER_TASK) * width];
+		}
+		activeCount = new int[blocks];
+		pool = new ForkJoinPool(Math.max(1, threads));
+	}
+
+	/**
+	 * Shut down the pool of the threads.
+	 */
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Set the same model and parameters of a component in all the cells.
+	 *
+	 * @param component is the component
+	 * @param skyviewValue is the skyview factor
+	 */
+	public void setParameters(SnowMelting component, double skyviewValue) {
+		model = component.model;
+		Arrays.fill(meltingTemperature, component.meltingTemperature);
+		Arrays.fill(combinedMeltingFactor, component.combinedMeltingFactor);
+		Arrays.fill(radiationFactor, component.radiationFactor);
+		Arrays.fill(freezingFactor, component.freezingFactor);
+		Arrays.fill(alfa_l, component.alfa_l);
+		Arrays.fill(skyview, skyviewValue);
+		updateParameters();
+	}
+
+	/**
+	 * Rebuild the flags of the cells whose melting factors are not negative, after the
+	 * parameter arrays have been changed from outside the grid.
+	 */
+	public void updateParameters() {
+		for (int i = 0; i < nonNegativeMelting.length; i++) {
+			nonNegativeMelting[i] = combinedMeltingFactor[i] >= 0 && radiationFactor[i] >= 0 && skyview[i] >= 0;
+		}
+	}
+
+	/**
+	 * Set the same initial conditions in all the cells.
+	 *
+	 * @param solidWater is the solid water [mm]
+	 * @param liquidWater is the liquid water [mm]
+	 */
+	public void setSnowpack(double solidWater, double liquidWater) {
+		Arrays.fill(solid, solidWater);
+		Arrays.fill(liquid, liquidWater);
+		Arrays.fill(SWE, 0);
+		updateActiveSet();
+	}
+
+	/**
+	 * Rebuild the active set from the state of the cells, after it has been changed
+	 * from outside the grid.
+	 */
+	public void updateActiveSet() {
+		int count = 0;
+		for (int b = 0; b < activeList.length; b++) {
+			int[] list = activeList[b];
+			int n = 0;
+			for (int i = b * ROWS_PER_TASK * width, last = i + list.length; i < last; i++) {
+				active[i] = solid[i] != 0 || liquid[i] != 0 || SWE[i] != 0;
+				if (active[i]) list[n++] = i;
+			}
+			activeCount[b] = n;
+			count += n;
+		}
+		activeCells.set(count);
+	}
+
+	/**
+	 * @return the number of cells with snow at the end of the last step
+	 */
+	public int getActiveCells() {
+		return activeCells.get();
+	}
+
+	/**
+	 * @return the number of cells
+	 */
+	public int size() {
+		return solid.length;
+	}
+
+	/**
+	 * Advance all the cells of a time step.
+	 *
+	 * @param rainfall is the rainfall of the cells [mm]
+	 * @param snowfall is the snowfall of the cells [mm]
+	 * @param shortwaveRadiation is the shortwave radiation of the cells [W/m2], null if the model does not use it
+	 * @param temperature is the temperature of the cells [°C]
+	 * @param EI is the energy index of the cells, null if the model does not use it
+	 * @param meltingDischarge is the output array of the melting discharge of the cells [mm]
+	 */
+	public void step(double[] rainfall, double[] snowfall, double[] shortwaveRadiation, double[] temperature,
+			double[] EI, double[] meltingDischarge) {
+		int cells = size();
+		if (rainfall.length != cells || snowfall.length != cells || temperature.length != cells
+				|| (shortwaveRadiation != null && shortwaveRadiation.length != cells)
+				|| (EI != null && EI.length != cells) || meltingDischarge.length != cells) {
+			throw new IllegalArgumentException("The input and output arrays must have a value for each cell");
+		}
+		Inputs inputs = new Inputs(modelIndex(model), rainfall, snowfall, shortwaveRadiation, temperature, EI,
+				meltingDischarge);
+		activeCells.set(0);
+		pool.invoke(new BlocksTask(inputs, 0, activeList.length));
+	}
+
+	/**
+	 * @return the index of the melting model
+	 */
+	static int modelIndex(String model) {
+		if (model.equals("Classical")) {
+			return CLASSICAL;
+		} else if (model.equals("Cazorzi")) {
+			return CAZORZI;
+		} else if (model.equals("Hoock")) {
+			return HOOCK;
+		}
+		throw new IllegalArgumentException("Unknown melting model: " + model);
+	}
+
+	/**
+	 * Advance a block of rows of a time step, with the mass balance of {@link SnowMelting}:
+	 * the empty cells are scanned first, then the cells in the list of the active ones.
+	 *
+	 * @return the number of active cells of the block at the end of the step
+	 */
+	int advanceBlock(Inputs in, int block) {
+		int[] list = activeList[block];
+		int count = activeCount[block];
+
+		// the empty cells: the ones which get some water join the list after the active ones
+		int joined = count;
+		for (int i = block * ROWS_PER_TASK * width, last = i + list.length; i < last; i++) {
+			if (active[i]) {
+				continue;
+			}
+			// an empty pack stays empty if there is no snowfall, no freezing and no negative
+			// or NaN melting: the rainfall is discharged as it is
+			double t = in.temperature[i];
+			double mt = meltingTemperature[i];
+			double rain = in.rainfall[i];
+			if ((in.snowfall[i] == 0) & (t >= mt | t != t) & (rain >= 0) & (t <= mt | nonNegativeMelting[i])) {
+				in.meltingDischarge[i] = rain + 0.0;
+				continue;
+			}
+			if (advance(in, i)) {
+				active[i] = true;
+				list[joined++] = i;
+			}
+		}
+
+		// the active cells: the ones whose pack is depleted leave the list
+		int n = 0;
+		for (int k = 0; k < count; k++) {
+			int i = list[k];
+			if (advance(in, i)) {
+				list[n++] = i;
+			} else {
+				active[i] = false;
+			}
+		}
+		System.arraycopy(list, count, list, n, joined - count);
+		activeCount[block] = n + joined - count;
+		return activeCount[block];
+	}
+
+	/**
+	 * Advance a cell of a time step with the whole mass balance.
+	 *
+	 * @return true if the pack of the cell is not empty at the end of the step
+	 */
+	private boolean advance(Inputs in, int i) {
+		double t = in.temperature[i];
+		double mt = meltingTemperature[i];
+		double melting = (t > mt) ? potential(in, i, t, mt) : 0;
+		in.meltingDischarge[i] = balance(solid, liquid, SWE, i, in.rainfall[i], in.snowfall[i], t, mt,
+				freezingFactor[i], melting, alfa_l[i]);
+		return solid[i] != 0 || liquid[i] != 0;
+	}
+
+	/**
+	 * @return the melting rate of a cell given by the model, before the bound of the SWE
+	 */
+	private double potential(Inputs in, int i, double t, double mt) {
+		return potential(in.model, t, mt, combinedMeltingFactor[i], radiationFactor[i],
+				(in.shortwaveRadiation == null) ? 0 : in.shortwaveRadiation[i], (in.EI == null) ? 0 : in.EI[i],
+				skyview[i]);
+	}
+
+	/**
+	 * Compute the melting rate given by a melting model, before the bound of the SWE.
+	 *
+	 * @param model is the index of the melting model
+	 * @param t is the temperature [°C]
+	 * @param mt is the melting temperature [°C]
+	 * @param combinedMeltingFactor is the combined melting factor
+	 * @param radiationFactor is the radiation factor
+	 * @param shortwave is the shortwave radiation [W/m2]
+	 * @param EI is the energy index
+	 * @param skyview is the skyview factor
+	 * @return the melting rate [mm]
+	 */
+	static double potential(int model, double t, double mt, double combinedMeltingFactor, double radiationFactor,
+			double shortwave, double EI, double skyview) {
+		switch (model) {
+		case CLASSICAL:
+			return combinedMeltingFactor * (t - mt);
+		case CAZORZI:
+			return combinedMeltingFactor * (t - mt) * EI * skyview;
+		default:
+			return (combinedMeltingFactor + radiationFactor * shortwave) * (t - mt) * skyview;
+		}
+	}
+
+	/**
+	 * Advance a snowpack of a time step with the mass balance of {@link SnowMelting}: the i-th
+	 * elements of the state arrays are updated. It is the balance of the cells of a grid and of
+	 * the members of a {@link SnowEnsemble}.
+	 *
+	 * @param solid is the solid water of the snowpacks [mm]
+	 * @param liquid is the liquid water of the snowpacks [mm]
+	 * @param SWE is the SWE of the snowpacks at the previous time step [mm]
+	 * @param i is the index of the snowpack
+	 * @param rainfall is the rainfall [mm]
+	 * @param snowfall is the snowfall [mm]
+	 * @param t is the temperature [°C]
+	 * @param mt is the melting temperature [°C]
+	 * @param freezingFactor is the freezing factor
+	 * @param potential is the melting rate given by the model, used if t is above mt
+	 * @param alfa_l is the coefficient of the maximum liquid water
+	 * @return the melting discharge [mm]
+	 */
+	static double balance(double[] solid, double[] liquid, double[] SWE, int i, double rainfall, double snowfall,
+			double t, double mt, double freezingFactor, double potential, double alfa_l) {
+		double freezing = (t < mt) ? freezingFactor * (mt - t) : 0;
+		double melting = (t > mt) ? Math.min(potential, SWE[i]) : 0;
+
+		double solidWater = solid[i] + dt * (snowfall + freezing - melting);
+		if (solidWater < 0) solidWater = 0;
+		double liquidWater = liquid[i] + dt * (rainfall - freezing + melting);
+		if (liquidWater < 0) liquidWater = 0;
+
+		// the liquid water that exceeds the maximum amount of liquid water in the snow pack becomes
+		// snowmelt discharge
+		double maxLiquidWater = alfa_l * solidWater;
+		double meltingDischarge = (liquidWater > maxLiquidWater) ? liquidWater - maxLiquidWater : 0;
+		liquidWater = Math.min(maxLiquidWater, liquidWater);
+
+		solid[i] = solidWater;
+		liquid[i] = liquidWater;
+		SWE[i] = solidWater + liquidWater;
+		return meltingDischarge;
+	}
+
+
+	/**
+	 * The inputs and the outputs of a time step.
+	 */
+	static final class Inputs {
+
+		final int model;
+		final double[] rainfall;
+		final double[] snowfall;
+		final double[] shortwaveRadiation;
+		final double[] temperature;
+		final double[] EI;
+		final double[] meltingDischarge;
+
+		Inputs(int model, double[] rainfall, double[] snowfall, double[] shortwaveRadiation, double[] temperature,
+				double[] EI, double[] meltingDischarge) {
+			this.model = model;
+			this.rainfall = rainfall;
+			this.snowfall = snowfall;
+			this.shortwaveRadiation = shortwaveRadiation;
+			this.temperature = temperature;
+			this.EI = EI;
+			this.meltingDischarge = meltingDischarge;
+		}
+	}
+
+	/**
+	 * The task advancing a range of blocks of rows: the range is split in two
+	 * halves until it is a single block.
+	 */
+	private class BlocksTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final Inputs inputs;
+		final int firstBlock;
+		final int lastBlock;
+
+		BlocksTask(Inputs inputs, int firstBlock, int lastBlock) {
+			this.inputs = inputs;
+			this.firstBlock = firstBlock;
+			this.lastBlock = lastBlock;
+		}
+
+		@Override
+		protected void compute() {
+			if (lastBlock - firstBlock > 1) {
+				int middle = (firstBlock + lastBlock) >>> 1;
+				invokeAll(new BlocksTask(inputs, firstBlock, middle), new BlocksTask(inputs, middle, lastBlock));
+				return;
+			}
+			for (int b = firstBlock; b < lastBlock; b++) {
+				activeCells.addAndGet(advanceBlock(inputs, b));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package swrb;
+
+/**
+ * The clear sky direct and diffuse shortwave radiation according to Corripio (2002).
+ * All the intermediate values are local, so the same instance can be shared
+ * by the point and the raster components and by concurrent tasks.
+ * <p>
+ * The transmittance functions depending only on the air mass can be interpolated in a
+ * {@link TransmittanceTable} instead of being computed at each call; the air masses out of
+ * the table are always computed exactly.
+ */
+final class ClearSkyRadiation {
+
+	/** The solar constant */
+	static final double SOLARCTE = 1370.0;
+
+	/** The atmospheric pressure */
+	static final double ATM = 1013.25;
+
+	/** Ozone layer thickness in cm */
+	final double pCmO3;
+
+	/** Visibility depending on aerosol attenuation [km] */
+	final double pVisibility;
+
+	/** The soil albedo */
+	final double pAlphag;
+
+	/** The tabulated transmittance functions, null to compute them exactly */
+	final TransmittanceTable table;
+
+
+	ClearSkyRadiation(double pCmO3, double pVisibility, double pAlphag){
+		this(pCmO3, pVisibility, pAlphag, false);
+	}
+
+	/**
+	 * @param pCmO3 is the ozone layer thickness in cm
+	 * @param pVisibility is the visibility [km]
+	 * @param pAlphag is the soil albedo
+	 * @param tabulated is true to interpolate the transmittance functions in a
+	 *        {@link TransmittanceTable} instead of computing them exactly
+	 */
+	ClearSkyRadiation(double pCmO3, double pVisibility, double pAlphag, boolean tabulated){
+
+		this.pCmO3=pCmO3;
+		this.pVisibility=pVisibility;
+		this.pAlphag=pAlphag;
+		this.table = tabulated ? TransmittanceTable.forParameters(pCmO3, pVisibility) : null;
+
+	}
+
+	/**
+	 * compute calculates the direct and the diffuse radiation in a point.
+	 * The direct radiation is In * cosIncidence * directFactor, where directFactor is
+	 * the skyview factor in the point case and the shadow index in the raster case.
+	 * No check is done on the physical range of the results.
+	 *
+	 * @param cosZenith is the cosine of the zenith angle (the third component of the sun vector)
+	 * @param cosIncidence is the cosine of the angle between the sun vector and the surface normal
+	 * @param directFactor is the factor applied to the direct radiation
+	 * @param skyview is the skyview factor
+	 * @param z is the elevation of the point
+	 * @param temperature is the air temperature [°C]
+	 * @param humidity is the relative humidity [%]
+	 * @param E0 is the correction of the eccentricity
+	 * @param result is the array filled with the direct (0) and the diffuse (1) radiation
+	 */
+	void compute(double cosZenith, double cosIncidence, double directFactor, double skyview, double z,
+			double temperature, double humidity, double E0, double[] result) {
+
+		// zenith angle
+		double zenith = Math.acos(cosZenith);
+
+		//mr [–] relative optical air mass:
+		double mr = 1.0 / (cosZenith + 0.15 * Math.pow( (93.885 - (zenith * (180 / (2*Math.PI)))), (-1.253)));
+
+		// local atmospheric pressure
+		double pressure = ATM * Math.exp(-0.0001184 * z);
+
+		// relative air mass
+		double ma = mr * pressure / ATM;
+
+		double tau_r, tau_o, tau_g, tau_a, tau_aa, q;
+		double u = (table != null) ? table.position(ma) : -1;
+		double v = (table != null) ? table.position(mr) : -1;
+		if (u >= 0 && u < TransmittanceTable.INTERVALS && v >= 0 && v < TransmittanceTable.INTERVALS) {
+			int i = (int) u;
+			int j = (int) v;
+			tau_r = table.interpolate(i, u - i, TransmittanceTable.TAU_R);
+			tau_g = table.interpolate(i, u - i, TransmittanceTable.TAU_G);
+			tau_a = table.interpolate(i, u - i, TransmittanceTable.TAU_A);
+			tau_aa = table.interpolate(i, u - i, TransmittanceTable.TAU_AA);
+			q = table.interpolate(i, u - i, TransmittanceTable.Q);
+			tau_o = table.interpolate(j, v - j, TransmittanceTable.TAU_O);
+		} else {
+			tau_r = tauR(ma);
+			tau_o = tauO(mr, pCmO3);
+			tau_g = tauG(ma);
+			tau_a = tauA(ma, pVisibility);
+			tau_aa = tauAA(ma, tau_a);
+			q = q(ma);
+		}
+
+		//transform the temperature in Kelvin
+		double temperatureK  = temperature + 273.0;
+
+		// evaluate the saturated valor pressure
+		double saturatedVaporPressure = Math.exp(26.23 - 5416.0 / temperatureK );
+
+		// the precipitable water in cm calculated according to Prata (1996)
+		double w = 0.493 * (humidity / 100) * saturatedVaporPressure / temperatureK ;
+
+		// Transmittance by water vapour
+		double tau_w = 1.0 - 2.4959 * w * mr / (Math.pow(1.0 + 79.034 * w * mr, 0.6828) + 6.385 * w * mr);
+
+		// correction factor [m] for increased trasmittance with elevation z[m] according to Corripio (2002)
+		double beta_s = (z <= 3000)?2.2 * Math.pow(10, -5) * z:2.2 * Math.pow(10, -5) * 3000;
+
+		// The direct normal irradiance
+		double In=0.9571*SOLARCTE*E0*(tau_r * tau_o * tau_g * tau_w * tau_a + beta_s);
+
+		// Direct radiation under cloudless sky incident on arbitrary tilted surfaces
+		result[0]=In* cosIncidence * directFactor;
+
+		//  Rayleigh scattered diffunce irradiance
+		double I_dr = 0.79 * E0*SOLARCTE* cosZenith * (1.0 - tau_r)* (tau_o * tau_g * tau_w * tau_aa) * 0.5/ q;
+
+		// The aerosol-scattered diffuse irradiance
+		double FC = 0.74;
+		double I_da = 0.79 * E0*SOLARCTE* cosZenith * (tau_o * tau_g * tau_w * tau_aa) * FC
+				* (1.0 - (tau_a / tau_aa)) / q;
+
+		// The atmospheric albedo is computed as
+		double alpha_a = 0.0685 + (1.0 - FC) * (1.0 - (tau_a / tau_aa));
+
+		// the diffuse irradiance from multiple reflection between the earth and the atmosphere
+		double I_dm = (In*cosZenith+ I_dr + I_da) * alpha_a * pAlphag / (1.0 - pAlphag * alpha_a);
+
+		result[1] = (I_dr + I_da + I_dm)* skyview;
+	}
+
+	/**
+	 * @param ma is the relative air mass
+	 * @return the transmittance for Rayleigh scattering
+	 */
+	static double tauR(double ma) {
+		return Math.exp((-.09030 * Math.pow(ma, 0.84))
+				* (1.0 + ma - Math.pow(ma, 1.01)));
+	}
+
+	/**
+	 * @param mr is the relative optical air mass
+	 * @param pCmO3 is the ozone layer thickness in cm
+	 * @return the transmittance by ozone
+	 */
+	static double tauO(double mr, double pCmO3) {
+		return 1.0 - ((0.1611 * pCmO3 * mr * Math.pow(1.0 + 139.48 * pCmO3 * mr,-0.3035))
+				- (0.002715 * pCmO3 * mr / (1.0 + 0.044 * pCmO3 * mr + 0.0003 * Math.pow(pCmO3 * mr, 2))));
+	}
+
+	/**
+	 * @param ma is the relative air mass
+	 * @return the transmittance by uniformly mixed gases
+	 */
+	static double tauG(double ma) {
+		return Math.exp(-0.0127 * Math.pow(ma, 0.26));
+	}
+
+	/**
+	 * @param ma is the relative air mass
+	 * @param pVisibility is the visibility [km]
+	 * @return the transmittance by aerosols
+	 */
+	static double tauA(double ma, double pVisibility) {
+		return Math.pow((0.97 - 1.265 * Math.pow(pVisibility,(-0.66))), Math.pow(ma, 0.9));
+	}
+
+	/**
+	 * @param ma is the relative air mass
+	 * @param tau_a is the transmittance by aerosols
+	 * @return the transmittance of direct radiation due to aerosol absorbance
+	 */
+	static double tauAA(double ma, double tau_a) {
+		//single-scattering albedo fraction of incident energy scattered to total attenuation by aerosol
+		double omega0 = 0.9;
+		return 1.0 - (1.0 - omega0)* (1.0 - ma + Math.pow(ma, 1.06)) * (1 - tau_a);
+	}
+
+	/**
+	 * @param ma is the relative air mass
+	 * @return the air mass term 1 - ma + ma^1.02 of the diffuse irradiance
+	 */
+	static double q(double ma) {
+		return 1.0 - ma + Math.pow(ma, 1.02);
+	}
+
+}
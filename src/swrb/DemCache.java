@@ -0,0 +1,382 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package swrb;
+
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A persistent cache of the products derived from a DEM (normal vectors, horizon angles,
+ * skyview factor), which do not change between the runs.
+ * <p>
+ * The cache is keyed by a SHA-256 hash of the content of the DEM and of its resolution: each
+ * product is a flat binary file named after the hash and the product, so a changed DEM never
+ * finds the products of the old one. The files are memory-mapped back with
+ * {@link FileChannel#map}, so the products are available without reading them in the heap.
+ * <p>
+ * File layout (little endian): a header of {@link #HEADER_SIZE} bytes with the magic number,
+ * the version, the type of the values, the number of columns, rows, bands and values per cell
+ * and the hash, followed by the bands, one after the other, with the cells in row-major order
+ * and the values of a cell contiguous.
+ * Each band is mapped on its own, so it must be smaller than 2 GB, but a product of bytes
+ * with a single band can also be mapped in blocks of rows, for the bands larger than that.
+ */
+public final class DemCache {
+
+	/** The size of the header of the files */
+	static final int HEADER_SIZE = 64;
+
+	/** The identifier written at the beginning of the files */
+	private static final int MAGIC = 0x44454d43;
+
+	/** The version of the files */
+	private static final int VERSION = 1;
+
+	/** The type of the products stored as doubles */
+	private static final int TYPE_DOUBLE = 1;
+
+	/** The type of the products stored as bytes */
+	private static final int TYPE_BYTE = 2;
+
+	final File directory;
+	final int cols;
+	final int rows;
+
+	/** The hash of the DEM and of its resolution */
+	final byte[] hash;
+
+
+	/**
+	 * Open the cache of a DEM in a directory, which is created if it does not exist.
+	 *
+	 * @param directory is the directory of the cache
+	 * @param demWR is the writable raster of the DEM
+	 * @param res is the resolution of the DEM
+	 * @throws IOException if the directory cannot be created
+	 */
+	public DemCache(File directory, WritableRaster demWR, double res) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create the cache directory: " + directory);
+		}
+		this.directory = directory;
+		this.cols = demWR.getWidth();
+		this.rows = demWR.getHeight();
+		this.hash = hash(demWR, res);
+	}
+
+	/**
+	 * Compute the SHA-256 hash of the content of a DEM and of its resolution.
+	 *
+	 * @param demWR is the writable raster of the DEM
+	 * @param res is the resolution of the DEM
+	 * @return the hash
+	 */
+	public static byte[] hash(WritableRaster demWR, double res) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		int cols = demWR.getWidth();
+		ByteBuffer header = ByteBuffer.allocate(16);
+		header.putInt(cols).putInt(demWR.getHeight()).putDouble(res);
+		digest.update(header.array());
+
+		double[] row = new double[cols];
+		ByteBuffer bytes = ByteBuffer.allocate(cols * 8);
+		for (int r = 0; r < demWR.getHeight(); r++) {
+			demWR.getSamples(demWR.getMinX(), demWR.getMinY() + r, cols, 1, 0, row);
+			bytes.clear();
+			bytes.asDoubleBuffer().put(row);
+			digest.update(bytes.array());
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Get the bands of a product stored as doubles.
+	 *
+	 * @param name is the name of the product
+	 * @return the memory-mapped bands, or null if the product is not in the cache
+	 * @throws IOException
+	 */
+	public DoubleBuffer[] getDoubles(String name) throws IOException {
+		ByteBuffer[] bands = map(name, TYPE_DOUBLE, 8, 0);
+		if (bands == null) {
+			return null;
+		}
+		DoubleBuffer[] doubles = new DoubleBuffer[bands.length];
+		for (int b = 0; b < bands.length; b++) {
+			doubles[b] = bands[b].asDoubleBuffer();
+		}
+		return doubles;
+	}
+
+	/**
+	 * Get the bands of a product stored as bytes.
+	 *
+	 * @param name is the name of the product
+	 * @return the memory-mapped bands, or null if the product is not in the cache
+	 * @throws IOException
+	 */
+	public ByteBuffer[] getBytes(String name) throws IOException {
+		return map(name, TYPE_BYTE, 1, 0);
+	}
+
+	/**
+	 * Get a product of bytes with a single band, mapped in blocks of rows.
+	 *
+	 * @param name is the name of the product
+	 * @param rowsPerBlock is the number of rows in each block, the last one can have less
+	 * @return the memory-mapped blocks, or null if the product is not in the cache
+	 * @throws IOException
+	 */
+	public ByteBuffer[] getByteRows(String name, int rowsPerBlock) throws IOException {
+		return map(name, TYPE_BYTE, 1, rowsPerBlock);
+	}
+
+	/**
+	 * Store all the bands of a raster as a product of doubles.
+	 *
+	 * @param name is the name of the product
+	 * @param raster is the raster, with the dimension of the DEM
+	 * @throws IOException
+	 */
+	public void putDoubles(String name, WritableRaster raster) throws IOException {
+		if (raster.getWidth() != cols || raster.getHeight() != rows) {
+			throw new IllegalArgumentException("The raster has not the dimension of the DEM");
+		}
+		int bands = raster.getNumBands();
+		File tmp = temporaryFile(name);
+		try {
+			RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+			try {
+				FileChannel channel = file.getChannel();
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				writeHeader(header, TYPE_DOUBLE, bands, 1);
+				header.flip();
+				channel.write(header, 0);
+
+				double[] row = new double[cols];
+				ByteBuffer bytes = ByteBuffer.allocate(cols * 8).order(ByteOrder.LITTLE_ENDIAN);
+				long position = HEADER_SIZE;
+				for (int b = 0; b < bands; b++) {
+					for (int r = 0; r < rows; r++) {
+						raster.getSamples(raster.getMinX(), raster.getMinY() + r, cols, 1, b, row);
+						bytes.clear();
+						bytes.asDoubleBuffer().put(row);
+						while (bytes.hasRemaining()) {
+							position += channel.write(bytes, position);
+						}
+					}
+				}
+				channel.force(true);
+			} finally {
+				file.close();
+			}
+			commit(tmp, name);
+		} finally {
+			// the temporary file is left only if the product has not been committed
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+
+	/**
+	 * Store the bands of a product of bytes.
+	 *
+	 * @param name is the name of the product
+	 * @param valuesPerCell is the number of values of each cell in a band
+	 * @param bands are the bands, each one with valuesPerCell bytes for each cell of the DEM
+	 * @throws IOException
+	 */
+	public void putBytes(String name, int valuesPerCell, ByteBuffer... bands) throws IOException {
+		for (ByteBuffer band : bands) {
+			if (band.capacity() != (long) cols * rows * valuesPerCell) {
+				throw new IllegalArgumentException("The band has not " + valuesPerCell + " bytes for each cell of the DEM");
+			}
+		}
+		writeBytes(name, valuesPerCell, bands.length, bands);
+	}
+
+	/**
+	 * Store a product of bytes with a single band, given in blocks of rows.
+	 *
+	 * @param name is the name of the product
+	 * @param valuesPerCell is the number of values of each cell
+	 * @param blocks are the blocks of rows, in order, with valuesPerCell bytes for each cell
+	 * @throws IOException
+	 */
+	public void putByteRows(String name, int valuesPerCell, ByteBuffer... blocks) throws IOException {
+		long size = 0;
+		for (ByteBuffer block : blocks) {
+			size += block.capacity();
+		}
+		if (size != (long) cols * rows * valuesPerCell) {
+			throw new IllegalArgumentException("The blocks have not " + valuesPerCell + " bytes for each cell of the DEM");
+		}
+		writeBytes(name, valuesPerCell, 1, blocks);
+	}
+
+	/**
+	 * Write the buffers of a product of bytes one after the other.
+	 */
+	private void writeBytes(String name, int valuesPerCell, int bands, ByteBuffer[] buffers) throws IOException {
+		File tmp = temporaryFile(name);
+		try {
+			RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+			try {
+				FileChannel channel = file.getChannel();
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				writeHeader(header, TYPE_BYTE, bands, valuesPerCell);
+				header.flip();
+				channel.write(header, 0);
+				long position = HEADER_SIZE;
+				for (ByteBuffer buffer : buffers) {
+					ByteBuffer data = buffer.duplicate();
+					data.clear();
+					while (data.hasRemaining()) {
+						position += channel.write(data, position);
+					}
+				}
+				channel.force(true);
+			} finally {
+				file.close();
+			}
+			commit(tmp, name);
+		} finally {
+			// the temporary file is left only if the product has not been committed
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+
+	/**
+	 * Map the bands of a product, checking the header.
+	 *
+	 * @param name is the name of the product
+	 * @param type is the expected type of the values
+	 * @param bytesPerValue is the size of the values
+	 * @param rowsPerBlock is the number of rows of the blocks to map the single band in, 0 to map each band whole
+	 * @return the bands or the blocks, or null if the file does not exist or belongs to another DEM
+	 * @throws IOException
+	 */
+	private ByteBuffer[] map(String name, int type, int bytesPerValue, int rowsPerBlock) throws IOException {
+		File file = file(name);
+		if (!file.exists()) {
+			return null;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				return null;
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			channel.read(header, 0);
+			header.flip();
+			byte[] fileHash = new byte[32];
+			if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != type
+					|| header.getInt() != cols || header.getInt() != rows) {
+				return null;
+			}
+			int bands = header.getInt();
+			int valuesPerCell = header.getInt();
+			header.get(fileHash);
+			long bandSize = (long) cols * rows * valuesPerCell * bytesPerValue;
+			if (!Arrays.equals(fileHash, hash) || channel.size() != HEADER_SIZE + bands * bandSize) {
+				return null;
+			}
+
+			// a mapping stays valid after the channel is closed
+			if (rowsPerBlock > 0) {
+				if (bands != 1) {
+					throw new IOException("The product " + name + " has more than one band");
+				}
+				long blockSize = bandSize / rows * rowsPerBlock;
+				if (blockSize > Integer.MAX_VALUE) {
+					throw new IOException("The blocks of " + name + " are too large to be mapped: " + blockSize + " bytes");
+				}
+				ByteBuffer[] blocks = new ByteBuffer[(rows + rowsPerBlock - 1) / rowsPerBlock];
+				for (int b = 0; b < blocks.length; b++) {
+					long position = b * blockSize;
+					blocks[b] = channel.map(MapMode.READ_ONLY, HEADER_SIZE + position,
+							Math.min(blockSize, bandSize - position)).order(ByteOrder.LITTLE_ENDIAN);
+				}
+				return blocks;
+			}
+			if (bandSize > Integer.MAX_VALUE) {
+				throw new IOException("The bands of " + name + " are too large to be mapped: " + bandSize + " bytes");
+			}
+			ByteBuffer[] mapped = new ByteBuffer[bands];
+			for (int b = 0; b < bands; b++) {
+				mapped[b] = channel.map(MapMode.READ_ONLY, HEADER_SIZE + b * bandSize, bandSize)
+						.order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return mapped;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void writeHeader(ByteBuffer buffer, int type, int bands, int valuesPerCell) {
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(type).putInt(cols).putInt(rows).putInt(bands)
+				.putInt(valuesPerCell).put(hash);
+	}
+
+	/**
+	 * @param name is the name of the product
+	 * @return the file of the product of this DEM
+	 */
+	File file(String name) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : hash) {
+			hex.append(String.format("%02x", b & 0xFF));
+		}
+		return new File(directory, hex + "." + name + ".bin");
+	}
+
+	/**
+	 * @return a new temporary file, with a unique name, in the directory of the cache
+	 */
+	private File temporaryFile(String name) throws IOException {
+		return Files.createTempFile(directory.toPath(), file(name).getName(), ".tmp").toFile();
+	}
+
+	/**
+	 * Move a completely written file to its final name with an atomic move, so an
+	 * interrupted run, or another one writing the same product, never leaves a truncated
+	 * or missing product in the cache.
+	 */
+	private void commit(File tmp, String name) throws IOException {
+		Files.move(tmp.toPath(), file(name).toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+}
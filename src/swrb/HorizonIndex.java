@@ -0,0 +1,477 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package swrb;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
+import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
+
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * The horizon index of a DEM: for each cell and for each of N azimuth sectors, the elevation
+ * angle of the horizon seen from the cell, quantized in one byte.
+ * <p>
+ * The index is computed once marching a ray for each sector from each cell. After that the shadow
+ * index for any position of the sun is the comparison between the elevation of the sun and the
+ * horizon angle interpolated between the two nearest sectors, without any new ray march.
+ * The index can be written to a file, or to a {@link DemCache}, and memory-mapped back in the
+ * following runs.
+ * <p>
+ * The sectors are measured in the frame of the sun vector of Corripio (2003), x towards the east
+ * (increasing columns) and y towards the south (increasing rows): the sector s looks in the
+ * direction 2&pi;s/N counterclockwise from the east.
+ */
+public final class HorizonIndex {
+
+	/** The number of quantization levels of the horizon angle */
+	private static final int LEVELS = 255;
+
+	/** The width of a quantization level [rad]: the horizon angles are stored with an error below STEP/2 */
+	public static final double STEP = Math.PI / 2 / LEVELS;
+
+	/** The identifier written at the beginning of the index files */
+	private static final int MAGIC = 0x484f5249;
+
+	/** The version of the index files */
+	private static final int VERSION = 1;
+
+	/** The size of the header of the index files */
+	private static final int HEADER_SIZE = 28;
+
+	/** The number of rows below which a task is not split further */
+	private static final int ROWS_PER_TASK = 8;
+
+	/** The largest size of a band of rows [bytes], so each band is a single buffer or mapping */
+	static final long BAND_SIZE = 1 << 30;
+
+	final int cols;
+	final int rows;
+	final int sectors;
+	final double res;
+
+	/** The number of rows in each band, the last one can have less */
+	final int rowsPerBand;
+
+	/**
+	 * The quantized horizon angles in bands of rows: the sectors of a cell are contiguous and
+	 * the cells are in row-major order, so the bands laid one after the other are the whole index.
+	 */
+	final ByteBuffer[] angles;
+
+
+	private HorizonIndex(int cols, int rows, int sectors, double res, int rowsPerBand, ByteBuffer[] angles) {
+		this.cols = cols;
+		this.rows = rows;
+		this.sectors = sectors;
+		this.res = res;
+		this.rowsPerBand = rowsPerBand;
+		this.angles = angles;
+	}
+
+	/**
+	 * @param bandSize is the largest size of a band [bytes]
+	 * @return the number of rows in each band of an index
+	 */
+	static int rowsPerBand(int cols, int rows, int sectors, long bandSize) {
+		long rowSize = (long) cols * sectors;
+		if (rowSize > bandSize) {
+			throw new IllegalArgumentException("A row of the horizon index is larger than " + bandSize + " bytes");
+		}
+		return (int) Math.max(1, Math.min(rows, bandSize / rowSize));
+	}
+
+	/**
+	 * @return the number of bands of an index with the given rows per band
+	 */
+	static int bands(int rows, int rowsPerBand) {
+		return (rows + rowsPerBand - 1) / rowsPerBand;
+	}
+
+	/**
+	 * Compute the horizon index of a DEM.
+	 *
+	 * @param demWR is the writable raster of the DEM
+	 * @param res is the resolution of the DEM
+	 * @param sectors is the number of azimuth sectors
+	 * @param maxDistance is the maximum distance searched for the horizon [m], infinite to search the whole DEM
+	 * @param threads is the number of threads
+	 * @return the horizon index
+	 */
+	public static HorizonIndex compute(WritableRaster demWR, double res, int sectors, double maxDistance, int threads) {
+		return compute(demWR, res, sectors, maxDistance, threads, BAND_SIZE);
+	}
+
+	/**
+	 * Compute the horizon index of a DEM in bands of the given size.
+	 */
+	static HorizonIndex compute(WritableRaster demWR, double res, int sectors, double maxDistance, int threads,
+			long bandSize) {
+		if (sectors < 1) {
+			throw new IllegalArgumentException("The number of sectors must be positive");
+		}
+		int cols = demWR.getWidth();
+		int rows = demWR.getHeight();
+		int rowsPerBand = rowsPerBand(cols, rows, sectors, bandSize);
+		ByteBuffer[] angles = new ByteBuffer[bands(rows, rowsPerBand)];
+		for (int b = 0; b < angles.length; b++) {
+			angles[b] = ByteBuffer.allocate(Math.min(rowsPerBand, rows - b * rowsPerBand) * cols * sectors);
+		}
+		HorizonIndex index = new HorizonIndex(cols, rows, sectors, res, rowsPerBand, angles);
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			pool.invoke(new HorizonTask(index, demWR, maxDistance, 0, index.rows));
+		} finally {
+			pool.shutdown();
+		}
+		return index;
+	}
+
+	/**
+	 * Compute the horizon angle of a cell in a direction, marching a ray one cell at a time.
+	 *
+	 * @param demWR is the writable raster of the DEM
+	 * @param col is the column of the cell
+	 * @param row is the row of the cell
+	 * @param dx is the east component of the unit vector of the direction
+	 * @param dy is the south component of the unit vector of the direction
+	 * @param res is the resolution of the DEM
+	 * @param maxDistance is the maximum distance searched for the horizon
+	 * @return the horizon angle [rad], not lower than 0
+	 */
+	static double horizonAngle(WritableRaster demWR, int col, int row, double dx, double dy, double res,
+			double maxDistance) {
+		int width = demWR.getWidth();
+		int height = demWR.getHeight();
+		double z0 = demWR.getSampleDouble(col, row, 0);
+		double maxTan = 0;
+		for (int k = 1; k * res <= maxDistance; k++) {
+			int c = (int) Math.round(col + k * dx);
+			int r = (int) Math.round(row + k * dy);
+			if (c < 0 || r < 0 || c >= width || r >= height) {
+				break;
+			}
+			double z = demWR.getSampleDouble(c, r, 0);
+			if (isNovalue(z)) {
+				continue;
+			}
+			double tan = (z - z0) / (k * res);
+			if (tan > maxTan) {
+				maxTan = tan;
+			}
+		}
+		return Math.atan(maxTan);
+	}
+
+	/**
+	 * @param col is the column of the cell
+	 * @param row is the row of the cell
+	 * @param sector is the azimuth sector
+	 * @return the horizon angle of the cell in the sector [rad]
+	 */
+	public double getAngle(int col, int row, int sector) {
+		return (band(row).get(position(col, row) + sector) & 0xFF) * STEP;
+	}
+
+	/**
+	 * @param row is the row of the cell
+	 * @return the band of the row
+	 */
+	ByteBuffer band(int row) {
+		return angles[row / rowsPerBand];
+	}
+
+	/**
+	 * @param col is the column of the cell
+	 * @param row is the row of the cell
+	 * @return the position of the first sector of the cell in the band of its row
+	 */
+	int position(int col, int row) {
+		// a band is never larger than BAND_SIZE, so the position fits in an int
+		return ((row % rowsPerBand) * cols + col) * sectors;
+	}
+
+	/**
+	 * Compute the shadow map for a position of the sun.
+	 *
+	 * @param sunVector is the sun vector
+	 * @param demWR is the writable raster of the DEM, used for the no value cells
+	 * @return the shadow map: 1 if the cell is in the sun, 0 if it is in the shadow
+	 */
+	public WritableRaster shadowMap(double[] sunVector, WritableRaster demWR) {
+		checkSize(demWR);
+		WritableRaster shadowWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, 0.0);
+		if (sunVector[2] <= 0) {
+			return shadowWR;
+		}
+
+		SunPosition sun = new SunPosition(sunVector);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				if (isNovalue(demWR.getSampleDouble(c, r, 0))) {
+					shadowWR.setSample(c, r, 0, doubleNovalue);
+				} else if (isLit(c, r, sun)) {
+					shadowWR.setSample(c, r, 0, 1.0);
+				}
+			}
+		}
+		return shadowWR;
+	}
+
+	/**
+	 * Check if a cell is in the sun: the elevation of the sun is compared with the horizon
+	 * angle linearly interpolated between the two sectors around the azimuth of the sun.
+	 *
+	 * @param col is the column of the cell
+	 * @param row is the row of the cell
+	 * @param sun is the position of the sun
+	 * @return true if the cell is in the sun
+	 */
+	boolean isLit(int col, int row, SunPosition sun) {
+		return isLit(band(row), position(col, row), sun);
+	}
+
+	/**
+	 * Check if a cell is in the sun, given the band and the position of the cell.
+	 *
+	 * @param band is the band of the row of the cell
+	 * @param position is the position of the cell in the band
+	 * @param sun is the position of the sun
+	 * @return true if the cell is in the sun
+	 */
+	static boolean isLit(ByteBuffer band, int position, SunPosition sun) {
+		double horizon = (1 - sun.weight) * (band.get(position + sun.sector) & 0xFF)
+				+ sun.weight * (band.get(position + sun.nextSector) & 0xFF);
+		return sun.elevation > horizon;
+	}
+
+	/**
+	 * The position of the sun expressed in the units of the index, computed once for all the cells.
+	 */
+	final class SunPosition {
+
+		/** The elevation of the sun in quantization levels */
+		final double elevation;
+		final int sector;
+		final int nextSector;
+		final double weight;
+
+		SunPosition(double[] sunVector) {
+			elevation = Math.asin(Math.min(1, sunVector[2])) / STEP;
+			double azimuth = Math.atan2(sunVector[1], sunVector[0]);
+			if (azimuth < 0) {
+				azimuth += 2 * Math.PI;
+			}
+			double position = azimuth * sectors / (2 * Math.PI);
+			int s = (int) Math.floor(position);
+			weight = position - s;
+			sector = s % sectors;
+			nextSector = (s + 1) % sectors;
+		}
+	}
+
+	/**
+	 * Check that the index has been computed on a raster with the same dimension.
+	 *
+	 * @param demWR is the writable raster of the DEM
+	 */
+	void checkSize(WritableRaster demWR) {
+		if (demWR.getWidth() != cols || demWR.getHeight() != rows) {
+			throw new IllegalArgumentException("The horizon index has not been computed on this DEM");
+		}
+	}
+
+	/**
+	 * @param demWR is the writable raster of the DEM
+	 * @param res is the resolution of the DEM
+	 * @return true if the index has been computed on a DEM with the same dimension and resolution
+	 */
+	public boolean matches(WritableRaster demWR, double res) {
+		return demWR.getWidth() == cols && demWR.getHeight() == rows && this.res == res;
+	}
+
+	/**
+	 * @return the number of azimuth sectors
+	 */
+	public int getSectors() {
+		return sectors;
+	}
+
+	/**
+	 * Write the index to a file.
+	 *
+	 * @param file is the output file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(cols);
+			out.writeInt(rows);
+			out.writeInt(sectors);
+			out.writeDouble(res);
+			byte[] chunk = new byte[64 * 1024];
+			for (ByteBuffer band : angles) {
+				ByteBuffer data = band.duplicate();
+				data.clear();
+				while (data.hasRemaining()) {
+					int length = Math.min(chunk.length, data.remaining());
+					data.get(chunk, 0, length);
+					out.write(chunk, 0, length);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read an index written by {@link #write(File)}: the angles are memory-mapped in bands of rows,
+	 * not read in the heap.
+	 *
+	 * @param file is the input file
+	 * @return the horizon index
+	 * @throws IOException if the file is not a horizon index
+	 */
+	public static HorizonIndex read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			channel.read(header, 0);
+			header.flip();
+			if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("The file is not a horizon index: " + file);
+			}
+			int cols = header.getInt();
+			int rows = header.getInt();
+			int sectors = header.getInt();
+			double res = header.getDouble();
+			long size = (long) cols * rows * sectors;
+			if (channel.size() != HEADER_SIZE + size) {
+				throw new IOException("The horizon index is truncated: " + file);
+			}
+			int rowsPerBand = rowsPerBand(cols, rows, sectors, BAND_SIZE);
+			long bandSize = (long) rowsPerBand * cols * sectors;
+			ByteBuffer[] angles = new ByteBuffer[bands(rows, rowsPerBand)];
+			for (int b = 0; b < angles.length; b++) {
+				long position = b * bandSize;
+				angles[b] = channel.map(MapMode.READ_ONLY, HEADER_SIZE + position, Math.min(bandSize, size - position));
+			}
+			return new HorizonIndex(cols, rows, sectors, res, rowsPerBand, angles);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Get the horizon index of a DEM from its cache, computing and storing it if it is not there.
+	 *
+	 * @param cache is the cache of the DEM
+	 * @param demWR is the writable raster of the DEM
+	 * @param res is the resolution of the DEM
+	 * @param sectors is the number of azimuth sectors
+	 * @param maxDistance is the maximum distance searched for the horizon [m]
+	 * @param threads is the number of threads
+	 * @return the horizon index, memory-mapped from the cache
+	 * @throws IOException
+	 */
+	public static HorizonIndex fromCache(DemCache cache, WritableRaster demWR, double res, int sectors,
+			double maxDistance, int threads) throws IOException {
+		String name = "horizon-" + sectors + "-" + maxDistance;
+		int rowsPerBand = rowsPerBand(demWR.getWidth(), demWR.getHeight(), sectors, BAND_SIZE);
+		ByteBuffer[] cached = cache.getByteRows(name, rowsPerBand);
+		if (cached == null) {
+			cache.putByteRows(name, sectors, compute(demWR, res, sectors, maxDistance, threads).angles);
+			cached = cache.getByteRows(name, rowsPerBand);
+		}
+		return new HorizonIndex(demWR.getWidth(), demWR.getHeight(), sectors, res, rowsPerBand, cached);
+	}
+
+
+	/**
+	 * The task computing the horizon angles of a block of rows: the block is split in two
+	 * halves until it is smaller than {@link #ROWS_PER_TASK}.
+	 */
+	private static class HorizonTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final HorizonIndex index;
+		final WritableRaster demWR;
+		final double maxDistance;
+		final int firstRow;
+		final int lastRow;
+
+		HorizonTask(HorizonIndex index, WritableRaster demWR, double maxDistance, int firstRow, int lastRow) {
+			this.index = index;
+			this.demWR = demWR;
+			this.maxDistance = maxDistance;
+			this.firstRow = firstRow;
+			this.lastRow = lastRow;
+		}
+
+		@Override
+		protected void compute() {
+			if (lastRow - firstRow > ROWS_PER_TASK) {
+				int middle = (firstRow + lastRow) >>> 1;
+				invokeAll(new HorizonTask(index, demWR, maxDistance, firstRow, middle),
+						new HorizonTask(index, demWR, maxDistance, middle, lastRow));
+				return;
+			}
+
+			int sectors = index.sectors;
+			double[] dx = new double[sectors];
+			double[] dy = new double[sectors];
+			for (int s = 0; s < sectors; s++) {
+				dx[s] = Math.cos(2 * Math.PI * s / sectors);
+				dy[s] = Math.sin(2 * Math.PI * s / sectors);
+			}
+
+			for (int r = firstRow; r < lastRow; r++) {
+				ByteBuffer band = index.band(r);
+				for (int c = 0; c < index.cols; c++) {
+					if (isNovalue(demWR.getSampleDouble(c, r, 0))) {
+						continue;
+					}
+					int position = index.position(c, r);
+					for (int s = 0; s < sectors; s++) {
+						double angle = horizonAngle(demWR, c, r, dx[s], dy[s], index.res, maxDistance);
+						band.put(position + s, (byte) Math.min(LEVELS, Math.round(angle / STEP)));
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -17,17 +17,24 @@
  */
 package swrb;
 
+import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
+
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 import javax.media.jai.RasterFactory;
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
 
 import oms3.annotations.Author;
 import oms3.annotations.Bibliography;
@@ -39,6 +46,7 @@ import oms3.annotations.Keywords;
 import oms3.annotations.Label;
 import oms3.annotations.License;
 import oms3.annotations.Name;
+import oms3.annotations.Out;
 import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -68,6 +76,25 @@ public class NormalVector extends JGTModel {
 	@In
 	WritableRaster normalWR;
 
+	@Description("If true, the maps of the slope and of the aspect are computed with the normal vectors")
+	@In
+	public boolean doSlopeAspect = false;
+
+	@Description("The number of threads used to compute the maps")
+	@In
+	public int pThreads = Runtime.getRuntime().availableProcessors();
+
+	@Description("The number of rows below which a task is not split further")
+	private static final int ROWS_PER_TASK = 32;
+
+	@Description("The map of the slope, in radians")
+	@Out
+	WritableRaster slopeWR;
+
+	@Description("The map of the aspect, in radians clockwise from the north")
+	@Out
+	WritableRaster aspectWR;
+
 
 
 	@Execute
@@ -78,8 +105,13 @@ public class NormalVector extends JGTModel {
 
 		double dx = CoverageUtilities.getRegionParamsFromGridCoverage(inDem).get(CoverageUtilities.XRES);
 
+		if (doSlopeAspect) {
+			slopeWR = CoverageUtilities.createDoubleWritableRaster(demWR.getWidth(), demWR.getHeight(), null, null, doubleNovalue);
+			aspectWR = CoverageUtilities.createDoubleWritableRaster(demWR.getWidth(), demWR.getHeight(), null, null, doubleNovalue);
+		}
+
 		// compute the vector normal to a grid cell surface.
-		normalWR = normalVector(demWR, dx);
+		normalWR = normalVector(demWR, dx, slopeWR, aspectWR, pThreads);
 
 	}
 
@@ -106,45 +138,272 @@ public class NormalVector extends JGTModel {
 	 * @return the normal vector for each cell
 	 */
 	protected WritableRaster normalVector(WritableRaster demWR, double res) {
+		return normalVector(demWR, res, null, null, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * normalVector compute the vector normal to a grid cell surface, according to Corripio (2003),
+	 * and optionally the slope and the aspect of the cell, in the same pass.
+	 * The rows are processed in parallel and the samples are read and written directly
+	 * in the arrays of the rasters, so nothing is allocated for each cell.
+	 *
+	 * @param demWR is the Writable raster of DEM 
+	 * @param res is the resolution of the DEM
+	 * @param slopeWR is the raster filled with the slope, or null
+	 * @param aspectWR is the raster filled with the aspect, or null
+	 * @param threads is the number of threads
+	 * @return the normal vector for each cell
+	 */
+	protected WritableRaster normalVector(WritableRaster demWR, double res, WritableRaster slopeWR,
+			WritableRaster aspectWR, int threads) {
 
-		int minX = demWR.getMinX();
-		int minY = demWR.getMinY();
 		int rows = demWR.getHeight();
 		int cols = demWR.getWidth();
 
-		RandomIter pitIter = RandomIterFactory.create(demWR, null);
 		/*
 		 * Initialize the image of the normal vector in the central point of the
 		 * cells, which have 3 components (X;Y;Z), so the Image have 3 bands..
 		 */
 		SampleModel sm = RasterFactory.createBandedSampleModel(5, cols, rows, 3);
 		WritableRaster tmpNormalVectorWR = CoverageUtilities .createDoubleWritableRaster(cols, rows, null, sm, 0.0);
-		WritableRandomIter tmpNormalIter = RandomIterFactory.createWritable( tmpNormalVectorWR, null);
-		/*
-		 * apply the corripio's formula 
-		 */
-		for (int j = minY; j < minX + rows - 1; j++) {
-			for (int i = minX; i < minX + cols - 1; i++) {
-				double zij = pitIter.getSampleDouble(i, j, 0);
-				double zidxj = pitIter.getSampleDouble(i + 1, j, 0);
-				double zijdy = pitIter.getSampleDouble(i, j + 1, 0);
-				double zidxjdy = pitIter.getSampleDouble(i + 1, j + 1, 0);
-				double firstComponent = res * (zij - zidxj + zijdy - zidxjdy);
-				double secondComponent = res * (zij + zidxj - zijdy - zidxjdy);
-				double thirthComponent = 2 * (res * res);
-				double den = Math.sqrt(firstComponent * firstComponent
-						+ secondComponent * secondComponent + thirthComponent
-						* thirthComponent);
-				tmpNormalIter.setPixel(i, j, new double[] {
-						firstComponent / den, secondComponent / den,
-						thirthComponent / den });
 
-			}
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			pool.invoke(new NormalTask(demWR, res, tmpNormalVectorWR, slopeWR, aspectWR, 0, rows - 1));
+		} finally {
+			pool.shutdown();
 		}
-		pitIter.done();
 
 		return tmpNormalVectorWR;
 
 	}
 
-}
\ No newline at end of file
+
+	/**
+	 * Get the normal vectors of a DEM from its cache, computing and storing them if they are not there.
+	 *
+	 * @param cache is the cache of the DEM
+	 * @param demWR is the Writable raster of DEM
+	 * @param res is the resolution of the DEM
+	 * @param threads is the number of threads
+	 * @return the three components of the normal vectors, memory-mapped from the cache
+	 * @throws IOException
+	 */
+	static DoubleBuffer[] normalVector(DemCache cache, WritableRaster demWR, double res, int threads) throws IOException {
+		DoubleBuffer[] normals = cache.getDoubles("normal");
+		if (normals == null) {
+			cache.putDoubles("normal", new NormalVector().normalVector(demWR, res, null, null, threads));
+			normals = cache.getDoubles("normal");
+		}
+		return normals;
+	}
+
+	/**
+	 * Get the bands of the raster of the normal vectors, with the cells in row-major order:
+	 * the arrays of the raster are wrapped when possible, otherwise they are copied.
+	 *
+	 * @param normalWR is the raster of the normal vectors
+	 * @return the three components of the normal vectors
+	 */
+	static DoubleBuffer[] bands(WritableRaster normalWR) {
+		int cols = normalWR.getWidth();
+		int rows = normalWR.getHeight();
+		DoubleBuffer[] bands = new DoubleBuffer[normalWR.getNumBands()];
+		SampleModel sm = normalWR.getSampleModel();
+		DataBuffer buffer = normalWR.getDataBuffer();
+		for (int b = 0; b < bands.length; b++) {
+			if (sm instanceof ComponentSampleModel && buffer instanceof DataBufferDouble
+					&& ((ComponentSampleModel) sm).getPixelStride() == 1
+					&& ((ComponentSampleModel) sm).getScanlineStride() == cols
+					&& normalWR.getSampleModelTranslateX() == normalWR.getMinX()
+					&& normalWR.getSampleModelTranslateY() == normalWR.getMinY()) {
+				ComponentSampleModel csm = (ComponentSampleModel) sm;
+				int bank = csm.getBankIndices()[b];
+				int offset = buffer.getOffsets()[bank] + csm.getBandOffsets()[b];
+				bands[b] = DoubleBuffer.wrap(((DataBufferDouble) buffer).getData(bank), offset, cols * rows).slice();
+			} else {
+				double[] values = new double[cols * rows];
+				normalWR.getSamples(normalWR.getMinX(), normalWR.getMinY(), cols, rows, b, values);
+				bands[b] = DoubleBuffer.wrap(values);
+			}
+		}
+		return bands;
+	}
+
+
+	/**
+	 * The task applying the corripio's formula to a block of rows: the block is split in two
+	 * halves until it is smaller than {@link #ROWS_PER_TASK}.
+	 */
+	private static class NormalTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final WritableRaster demWR;
+		final double res;
+		final WritableRaster normalWR;
+		final WritableRaster slopeWR;
+		final WritableRaster aspectWR;
+		final int firstRow;
+		final int lastRow;
+
+		NormalTask(WritableRaster demWR, double res, WritableRaster normalWR, WritableRaster slopeWR,
+				WritableRaster aspectWR, int firstRow, int lastRow) {
+			this.demWR = demWR;
+			this.res = res;
+			this.normalWR = normalWR;
+			this.slopeWR = slopeWR;
+			this.aspectWR = aspectWR;
+			this.firstRow = firstRow;
+			this.lastRow = lastRow;
+		}
+
+		@Override
+		protected void compute() {
+			if (lastRow - firstRow > ROWS_PER_TASK) {
+				int middle = (firstRow + lastRow) >>> 1;
+				invokeAll(new NormalTask(demWR, res, normalWR, slopeWR, aspectWR, firstRow, middle),
+						new NormalTask(demWR, res, normalWR, slopeWR, aspectWR, middle, lastRow));
+				return;
+			}
+			if (firstRow >= lastRow) {
+				return;
+			}
+
+			int cols = demWR.getWidth();
+
+			// the arrays of the output rasters, which are banded double rasters
+			BandAccess normal = new BandAccess(normalWR);
+			BandAccess slope = (slopeWR == null) ? null : new BandAccess(slopeWR);
+			BandAccess aspect = (aspectWR == null) ? null : new BandAccess(aspectWR);
+
+			// the DEM is read one row at a time, the row below becomes the current row of the next step
+			double[] row = new double[cols];
+			double[] rowBelow = new double[cols];
+			readRow(demWR, firstRow, row);
+
+			double thirthComponent = 2 * (res * res);
+			for (int j = firstRow; j < lastRow; j++) {
+				readRow(demWR, j + 1, rowBelow);
+				for (int i = 0; i < cols - 1; i++) {
+					double zij = row[i];
+					double zidxj = row[i + 1];
+					double zijdy = rowBelow[i];
+					double zidxjdy = rowBelow[i + 1];
+					double firstComponent = res * (zij - zidxj + zijdy - zidxjdy);
+					double secondComponent = res * (zij + zidxj - zijdy - zidxjdy);
+					double den = Math.sqrt(firstComponent * firstComponent
+							+ secondComponent * secondComponent + thirthComponent
+							* thirthComponent);
+					double nx = firstComponent / den;
+					double ny = secondComponent / den;
+					double nz = thirthComponent / den;
+					normal.set(i, j, 0, nx);
+					normal.set(i, j, 1, ny);
+					normal.set(i, j, 2, nz);
+
+					// the slope is the angle between the normal and the vertical, the aspect is the
+					// direction of the normal (x towards the east, y towards the south) from the north
+					if (slope != null) {
+						slope.set(i, j, 0, Math.acos(nz));
+					}
+					if (aspect != null) {
+						double a = Math.atan2(nx, -ny);
+						aspect.set(i, j, 0, (a < 0) ? a + 2 * Math.PI : a);
+					}
+				}
+				double[] tmp = row;
+				row = rowBelow;
+				rowBelow = tmp;
+			}
+		}
+
+		/**
+		 * Read a row of the DEM, directly from the array of the raster when it is a double or a
+		 * float raster with a component sample model.
+		 *
+		 * @param demWR is the Writable raster of DEM
+		 * @param j is the row, relative to the first row of the raster
+		 * @param values is the array filled with the elevations
+		 */
+		private static void readRow(WritableRaster demWR, int j, double[] values) {
+			SampleModel sm = demWR.getSampleModel();
+			DataBuffer buffer = demWR.getDataBuffer();
+			int cols = values.length;
+			if (sm instanceof ComponentSampleModel
+					&& (buffer instanceof DataBufferDouble || buffer instanceof DataBufferFloat)) {
+				ComponentSampleModel csm = (ComponentSampleModel) sm;
+				int bank = csm.getBankIndices()[0];
+				int pixelStride = csm.getPixelStride();
+				int offset = buffer.getOffsets()[bank] + csm.getOffset(
+						demWR.getMinX() - demWR.getSampleModelTranslateX(),
+						demWR.getMinY() + j - demWR.getSampleModelTranslateY(), 0);
+				if (buffer instanceof DataBufferDouble) {
+					double[] data = ((DataBufferDouble) buffer).getData(bank);
+					if (pixelStride == 1) {
+						System.arraycopy(data, offset, values, 0, cols);
+					} else {
+						for (int i = 0; i < cols; i++) {
+							values[i] = data[offset + i * pixelStride];
+						}
+					}
+				} else {
+					float[] data = ((DataBufferFloat) buffer).getData(bank);
+					for (int i = 0; i < cols; i++) {
+						values[i] = data[offset + i * pixelStride];
+					}
+				}
+			} else {
+				demWR.getSamples(demWR.getMinX(), demWR.getMinY() + j, cols, 1, 0, values);
+			}
+		}
+	}
+
+	/**
+	 * The direct access to the arrays of a banded double raster, as the ones created by
+	 * {@link CoverageUtilities}; any other raster is written through its sample model.
+	 */
+	private static class BandAccess {
+
+		final WritableRaster raster;
+		final double[][] banks;
+		final int[] offsets;
+		final int scanlineStride;
+		final int pixelStride;
+
+		BandAccess(WritableRaster raster) {
+			this.raster = raster;
+			SampleModel sm = raster.getSampleModel();
+			DataBuffer buffer = raster.getDataBuffer();
+			if (sm instanceof ComponentSampleModel && buffer instanceof DataBufferDouble) {
+				ComponentSampleModel csm = (ComponentSampleModel) sm;
+				int bands = csm.getNumBands();
+				banks = new double[bands][];
+				offsets = new int[bands];
+				for (int b = 0; b < bands; b++) {
+					int bank = csm.getBankIndices()[b];
+					banks[b] = ((DataBufferDouble) buffer).getData(bank);
+					offsets[b] = buffer.getOffsets()[bank] + csm.getOffset(
+							raster.getMinX() - raster.getSampleModelTranslateX(),
+							raster.getMinY() - raster.getSampleModelTranslateY(), b);
+				}
+				scanlineStride = csm.getScanlineStride();
+				pixelStride = csm.getPixelStride();
+			} else {
+				banks = null;
+				offsets = null;
+				scanlineStride = 0;
+				pixelStride = 0;
+			}
+		}
+
+		void set(int i, int j, int band, double value) {
+			if (banks != null) {
+				banks[band][offsets[band] + j * scanlineStride + i * pixelStride] = value;
+			} else {
+				raster.setSample(raster.getMinX() + i, raster.getMinY() + j, band, value);
+			}
+		}
+	}
+
+}
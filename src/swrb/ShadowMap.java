@@ -27,11 +27,13 @@ import org.jgrasstools.gears.libs.modules.JGTConstants;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Set;
 
 import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
@@ -54,6 +56,7 @@ import oms3.annotations.License;
 import oms3.annotations.Name;
 import oms3.annotations.Out;
 import oms3.annotations.Status;
+import oms3.annotations.Unit;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -111,9 +114,28 @@ public class ShadowMap extends JGTModel {
 
 	@Description("the sunrise in the considered day")
 	double sunset;
-	
-	@Description("The declination of the sun, diven the day")
-	double delta;
+
+	@Description("The number of azimuth sectors of the horizon index: "
+			+ "if 0 the rays are marched across the DEM at each time step")
+	@In
+	public int pSectors = 0;
+
+	@Description("The maximum distance searched for the horizon")
+	@In
+	@Unit ("m")
+	public double pMaxDistance = Double.POSITIVE_INFINITY;
+
+	@Description("The file of the horizon index: it is read if it exists, otherwise it is written")
+	@In
+	public String inHorizonIndex;
+
+	@Description("The directory of the cache of the products of the DEM: "
+			+ "if it is given, the horizon index is kept there instead of inHorizonIndex")
+	@In
+	public String inCacheDir;
+
+	@Description("The horizon index of the DEM, computed at the first time step")
+	HorizonIndex horizonIndex;
 	
 	@Description("The shadow map with the shadow index")
 	@Out
@@ -133,7 +155,7 @@ public class ShadowMap extends JGTModel {
 
 
 		// calculating the sun vector
-		double sunVector[] = calcSunVector(latitude, getHourAngle(date,latitude));
+		double sunVector[] = getSunVector(date);
 
 		// calculate the inverse of the sun vector
 		double[] inverseSunVector = calcInverseSunVector(sunVector);
@@ -142,12 +164,75 @@ public class ShadowMap extends JGTModel {
 		double[] normalSunVector = calcNormalSunVector(sunVector);
 
 		//evaluate the shadow map
-		shadowWR = calculateFactor(height, width, sunVector, inverseSunVector, normalSunVector, demWR, dx);
+		if (pSectors > 0) {
+			shadowWR = getHorizonIndex(dx).shadowMap(sunVector, demWR);
+		} else {
+			shadowWR = calculateFactor(height, width, sunVector, inverseSunVector, normalSunVector, demWR, dx);
+		}
 		
 
 						
 }
 
+	/**
+	 * Compute the shadow masks of many dates in a single sweep of the horizon index,
+	 * which must be enabled with pSectors.
+	 *
+	 * @param dates are the dates of the time steps
+	 * @return the bit-packed shadow masks, one for each date
+	 * @throws Exception
+	 */
+	public ShadowStack processStack(List<DateTime> dates) throws Exception {
+		if (pSectors < 1) {
+			throw new IllegalArgumentException("The shadow stack needs the horizon index: set pSectors");
+		}
+
+		// transform the GrifCoverage2D maps into writable rasters
+		demWR=mapsTransform(inDem);
+		double dx = CoverageUtilities.getRegionParamsFromGridCoverage(inDem).get(CoverageUtilities.XRES);
+
+		// calculating the sun vectors
+		double[][] sunVectors = new double[dates.size()][];
+		for (int t = 0; t < sunVectors.length; t++) {
+			sunVectors[t] = getSunVector(dates.get(t));
+		}
+
+		return ShadowStack.compute(getHorizonIndex(dx), sunVectors, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Get the horizon index of the DEM: it is memory-mapped from the cache of the DEM, if
+	 * there is a cache directory, or read from the file, if the file exists and
+	 * it has been computed on a DEM with the same dimension, otherwise it is computed
+	 * and written to the cache or to the file.
+	 *
+	 * @param dx is the resolution of the DEM
+	 * @return the horizon index
+	 * @throws IOException
+	 */
+	private HorizonIndex getHorizonIndex(double dx) throws IOException {
+		if (horizonIndex != null && horizonIndex.matches(demWR, dx) && horizonIndex.getSectors() == pSectors) {
+			return horizonIndex;
+		}
+		if (inCacheDir != null) {
+			horizonIndex = HorizonIndex.fromCache(new DemCache(new File(inCacheDir), demWR, dx), demWR, dx,
+					pSectors, pMaxDistance, Runtime.getRuntime().availableProcessors());
+			return horizonIndex;
+		}
+		File file = (inHorizonIndex == null) ? null : new File(inHorizonIndex);
+		if (file != null && file.exists()) {
+			horizonIndex = HorizonIndex.read(file);
+			if (horizonIndex.matches(demWR, dx) && horizonIndex.getSectors() == pSectors) {
+				return horizonIndex;
+			}
+		}
+		horizonIndex = HorizonIndex.compute(demWR, dx, pSectors, pMaxDistance, Runtime.getRuntime().availableProcessors());
+		if (file != null) {
+			horizonIndex.write(file);
+		}
+		return horizonIndex;
+	}
+
 	/**
 	 * Maps reader transform the GrifCoverage2D in to the writable raster,
 	 * replace the -9999.0 value with no value.
@@ -164,58 +249,20 @@ public class ShadowMap extends JGTModel {
 
 
 /**
- * getHourAngle is the value of the hour angle at a given time and latitude (Corripio (2003))
- * 
+ * Compute the vector in the direction of the sun (Corripio (2003)) from the ephemeris shared
+ * with the radiation components, which also give the sunrise and the sunset of the day.
  *
  * @param date is the current date
- * @param latitude is the latitude of the station
- * @return the double value of the hour angle
+ * @return the sun vector
  */
-private double getHourAngle(DateTime date, double latitude) {
-	int day = date.getDayOfYear();	
-	hour=(double)date.getMillisOfDay() / (1000 * 60 * 60);
-
-	// (360 / 365.25) * (day - 79.436) is the number of the day 
-	double dayangb = Math.toRadians((360 / 365.25) * (day - 79.436));
-
-	// Evaluate the declination of the sun.
-	delta = Math.toRadians(.3723 + 23.2567 * Math.sin(dayangb) - .758
-			* Math.cos(dayangb) + .1149 * Math.sin(2 * dayangb) + .3656
-			* Math.cos(2 * dayangb) - .1712 * Math.sin(3 * dayangb) + .0201
-			* Math.cos(3 * dayangb));
-
-	// ss is the absolute value of the hour angle at sunrise or sunset
-	double ss = Math.acos(-Math.tan(delta) * Math.tan(latitude));
-	sunrise = 12 * (1.0 - ss / Math.PI);
-	sunset = 12 * (1.0 + ss / Math.PI);
-
-	if (hour > (sunrise) && hour < (sunset) & (hour - sunrise) < 0.01) hour = hour + 0.1;
-	if (hour > (sunrise) && hour < (sunset) & (sunset - hour) < 0.01) hour = hour - 0.1;
-
-	//the hour angle is zero at noon and has the following value in radians at any time t
-	// given in hours and decimal fraction:
-	double hourangle=(hour/ 12.0 - 1.0) * Math.PI;
-	return hourangle;
-
+private double[] getSunVector(DateTime date) {
+	int day = date.getDayOfYear();
+	SolarEphemeris ephemeris = SolarEphemeris.forLatitude(latitude);
+	sunrise = ephemeris.sunrise(day);
+	sunset = ephemeris.sunset(day);
+	hour = ephemeris.hour(day, (double) date.getMillisOfDay() / (1000 * 60 * 60));
+	return ephemeris.sunVector(day, hour);
 }
 
-/**
- * calcSunVector compute the vector vector in the direction of the Sun (Corripio (2003))
- *
- * @param latitude is the latitude of the station 
- * @param the hour angle  
- * @return the sun vector 
- */
-protected double[] calcSunVector(double latitude, double hourAngle) {
-	double sunVector[] = new double[3];
-	sunVector[0] = -Math.sin(hourAngle) * Math.cos(delta);
-	sunVector[1] = Math.sin(latitude) * Math.cos(hourAngle) * Math.cos(delta)
-			- Math.cos(latitude) * Math.sin(delta);
-	sunVector[2] = Math.cos(latitude) * Math.cos(hourAngle) * Math.cos(delta)
-			+ Math.sin(latitude) * Math.sin(delta);
-	return sunVector;
 
 }
-
-
-}
\ No newline at end of file
@@ -0,0 +1,204 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package swrb;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
+import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
+
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * The shadow masks of many positions of the sun over the same DEM, one bit per cell:
+ * the bit is set if the cell is in the sun. The mask of each time step is an array of
+ * longs with the cells in row-major order, so a 10000x10000 DEM needs 12.5 MB per time step
+ * with the sun above the horizon. All the time steps with the sun below the horizon share a
+ * single empty mask.
+ * <p>
+ * All the masks are computed in a single sweep of the {@link HorizonIndex}: the horizon
+ * angles of a cell are read once and compared with all the positions of the sun.
+ */
+public final class ShadowStack {
+
+	/** The number of cells below which a task is not split further, a multiple of 64 */
+	private static final int CELLS_PER_TASK = 64 * 1024;
+
+	final int cols;
+	final int rows;
+
+	/** The masks, by time step: the time steps with the sun below the horizon share the same empty mask */
+	final long[][] masks;
+
+
+	/**
+	 * @param positions are the positions of the sun, null if it is below the horizon
+	 */
+	private ShadowStack(int cols, int rows, HorizonIndex.SunPosition[] positions) {
+		this.cols = cols;
+		this.rows = rows;
+		long words = ((long) cols * rows + 63) >>> 6;
+		if (words > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The DEM is too large for a shadow stack: " + cols + "x" + rows);
+		}
+		masks = new long[positions.length][];
+		long[] dark = null;
+		for (int t = 0; t < positions.length; t++) {
+			if (positions[t] != null) {
+				masks[t] = new long[(int) words];
+			} else {
+				if (dark == null) dark = new long[(int) words];
+				masks[t] = dark;
+			}
+		}
+	}
+
+	/**
+	 * Compute the shadow masks of the given positions of the sun.
+	 *
+	 * @param index is the horizon index of the DEM
+	 * @param sunVectors are the sun vectors, one for each time step
+	 * @param threads is the number of threads
+	 * @return the shadow masks
+	 */
+	public static ShadowStack compute(HorizonIndex index, double[][] sunVectors, int threads) {
+		// the sun below the horizon leaves the mask empty
+		HorizonIndex.SunPosition[] positions = new HorizonIndex.SunPosition[sunVectors.length];
+		for (int t = 0; t < sunVectors.length; t++) {
+			positions[t] = (sunVectors[t][2] > 0) ? index.new SunPosition(sunVectors[t]) : null;
+		}
+		ShadowStack stack = new ShadowStack(index.cols, index.rows, positions);
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			pool.invoke(new StackTask(stack, index, positions, 0, (long) index.cols * index.rows));
+		} finally {
+			pool.shutdown();
+		}
+		return stack;
+	}
+
+	/**
+	 * @return the number of time steps
+	 */
+	public int getTimesteps() {
+		return masks.length;
+	}
+
+	/**
+	 * @param timestep is the time step
+	 * @param col is the column of the cell
+	 * @param row is the row of the cell
+	 * @return true if the cell is in the sun at the time step
+	 */
+	public boolean isLit(int timestep, int col, int row) {
+		long cell = (long) row * cols + col;
+		return (masks[timestep][(int) (cell >>> 6)] & (1L << cell)) != 0;
+	}
+
+	/**
+	 * @param timestep is the time step
+	 * @return the bits of the mask of the time step, the cells are in row-major order: the mask
+	 *         must not be modified, since it may be shared with other time steps
+	 */
+	public long[] getMask(int timestep) {
+		return masks[timestep];
+	}
+
+	/**
+	 * Expand the mask of a time step in a shadow map as the one given by {@link ShadowMap}.
+	 *
+	 * @param timestep is the time step
+	 * @param demWR is the writable raster of the DEM, used for the no value cells
+	 * @return the shadow map: 1 if the cell is in the sun, 0 if it is in the shadow
+	 */
+	public WritableRaster getShadowMap(int timestep, WritableRaster demWR) {
+		if (demWR.getWidth() != cols || demWR.getHeight() != rows) {
+			throw new IllegalArgumentException("The shadow stack has not been computed on this DEM");
+		}
+		WritableRaster shadowWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, 0.0);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				if (isNovalue(demWR.getSampleDouble(c, r, 0))) {
+					shadowWR.setSample(c, r, 0, doubleNovalue);
+				} else if (isLit(timestep, c, r)) {
+					shadowWR.setSample(c, r, 0, 1.0);
+				}
+			}
+		}
+		return shadowWR;
+	}
+
+
+	/**
+	 * The task computing the bits of a range of cells for all the time steps. The ranges start
+	 * at a multiple of 64, so two tasks never write the same long.
+	 */
+	private static class StackTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final ShadowStack stack;
+		final HorizonIndex index;
+		final HorizonIndex.SunPosition[] positions;
+		final long firstCell;
+		final long lastCell;
+
+		StackTask(ShadowStack stack, HorizonIndex index, HorizonIndex.SunPosition[] positions, long firstCell,
+				long lastCell) {
+			this.stack = stack;
+			this.index = index;
+			this.positions = positions;
+			this.firstCell = firstCell;
+			this.lastCell = lastCell;
+		}
+
+		@Override
+		protected void compute() {
+			if (lastCell - firstCell > CELLS_PER_TASK) {
+				long middle = firstCell + (((lastCell - firstCell) >>> 1) & ~63L);
+				invokeAll(new StackTask(stack, index, positions, firstCell, middle),
+						new StackTask(stack, index, positions, middle, lastCell));
+				return;
+			}
+
+			long[][] masks = stack.masks;
+			int col = (int) (firstCell % stack.cols);
+			int row = (int) (firstCell / stack.cols);
+			for (long cell = firstCell; cell < lastCell; cell++) {
+				int word = (int) (cell >>> 6);
+				long bit = 1L << cell;
+				ByteBuffer band = index.band(row);
+				int position = index.position(col, row);
+				for (int t = 0; t < positions.length; t++) {
+					if (positions[t] != null && HorizonIndex.isLit(band, position, positions[t])) {
+						masks[t][word] |= bit;
+					}
+				}
+				if (++col == stack.cols) {
+					col = 0;
+					row++;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,430 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package swrb;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
+import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
+import static org.jgrasstools.gears.libs.modules.ModelsEngine.calcInverseSunVector;
+import static org.jgrasstools.gears.libs.modules.ModelsEngine.calcNormalSunVector;
+import static org.jgrasstools.gears.libs.modules.ModelsEngine.calculateFactor;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import oms3.annotations.Author;
+import oms3.annotations.Bibliography;
+import oms3.annotations.Description;
+import oms3.annotations.Documentation;
+import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.Label;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Out;
+import oms3.annotations.Status;
+import oms3.annotations.Unit;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+import org.jgrasstools.gears.libs.modules.JGTModel;
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+
+@Description("Calculate the maps of the direct, diffuse and top atmosphere shortwave radiation, "
+		+ "accounting for the slope, the aspect and the shadow of each pixel of the DEM.")
+@Documentation("")
+@Author(name = "Marialaura Bancheri, Giuseppe Formetta, Daniele Andreis and Riccardo Rigon", contact = "maryban@hotmail.it")
+@Keywords("Hydrology, Radiation, SkyviewFactor, Hillshade")
+@Bibliography("Corripio (2002), Corripio (2003), Formetta (2013)")
+@Label(JGTConstants.HYDROGEOMORPHOLOGY)
+@Name("shortradbalraster")
+@Status(Status.CERTIFIED)
+@License("General Public License Version 3 (GPLv3)")
+public class ShortwaveRadiationBalanceRaster extends JGTModel {
+
+	@Description("The map of the digital elevation model.")
+	@In
+	public GridCoverage2D inDem;
+
+	@Description("The map of the skyview factor.")
+	@In
+	public GridCoverage2D inSkyview;
+
+	@Description("The double value of the  temperature")
+	@In
+	@Unit ("°C")
+	public double temperature;
+
+	@Description("The double value of the  humidity")
+	@In
+	@Unit ("%")
+	public double humidity;
+
+	@Description("The double value of the  latitude of the basin")
+	@In
+	public double latitude;
+
+	@Description("The current date.")
+	@In
+	public String currentDate;
+
+	@Description("Ozone layer thickness in cm")
+	@In
+	public double pCmO3;
+
+	@Description(" Visibility depending on aerosol attenuation (5 < vis < 180 Km) [km].")
+	@In
+	@Unit ("km")
+	public double pVisibility;
+
+	@Description("The soil albedo.")
+	@In
+	public double pAlphag;
+
+	@Description("If true the transmittance functions are interpolated in tables "
+			+ "of the air mass: faster, with a relative error below 5e-6")
+	@In
+	public boolean doTabulatedTransmittance = false;
+
+	@Description("The number of threads used to compute the maps")
+	@In
+	public int pThreads = Runtime.getRuntime().availableProcessors();
+
+	@Description("The number of azimuth sectors of the horizon index: "
+			+ "if 0 the rays are marched across the DEM at each time step")
+	@In
+	public int pSectors = 0;
+
+	@Description("The maximum distance searched for the horizon")
+	@In
+	@Unit ("m")
+	public double pMaxDistance = Double.POSITIVE_INFINITY;
+
+	@Description("The directory of the cache of the products of the DEM (normal vectors and horizon index)")
+	@In
+	public String inCacheDir;
+
+	@Description("The number of rows below which a task is not split further")
+	private static final int ROWS_PER_TASK = 16;
+
+	@Description("The hour of the consdiered day")
+	double hour;
+
+	@Description("The sunrise in the considered day")
+	double sunrise;
+
+	@Description("The sunset in the considered day")
+	double sunset;
+
+	@Description("The sun vector")
+	double[] sunVector;
+
+	@Description("The correction of the eccentricity")
+	double E0;
+
+	@Description("The clear sky model, built with the current parameters")
+	ClearSkyRadiation clearSky;
+
+	@Description("The pool of the threads, kept between the time steps")
+	ForkJoinPool pool;
+
+	@Description("The DEM the products below have been prepared for")
+	GridCoverage2D preparedDem;
+
+	@Description("The number of sectors the horizon index has been prepared with")
+	int preparedSectors;
+
+	@Description("The maximum distance the horizon index has been prepared with")
+	double preparedMaxDistance;
+
+	@Description("The three components of the normal vectors, with the cells in row-major order")
+	DoubleBuffer[] normals;
+
+	@Description("The horizon index of the DEM, if pSectors is positive")
+	HorizonIndex horizonIndex;
+
+	@Description("The position of the sun in the horizon index")
+	HorizonIndex.SunPosition sunPosition;
+
+	WritableRaster demWR;
+	WritableRaster skyviewWR;
+	WritableRaster shadowWR;
+
+	@Description("The raster of the direct radiation, allocated at the first time step and reused by the following ones")
+	WritableRaster directWR;
+
+	@Description("The raster of the diffuse radiation, allocated at the first time step and reused by the following ones")
+	WritableRaster diffuseWR;
+
+	@Description("The raster of the radiation at the top of the atmosphere, allocated at the first time step "
+			+ "and reused by the following ones")
+	WritableRaster topATMWR;
+
+	@Description("The map of the direct radiation: its raster is overwritten by the following time step")
+	@Out
+	@Unit ("W/m2")
+	public GridCoverage2D outDirect;
+
+	@Description("The map of the diffuse radiation: its raster is overwritten by the following time step")
+	@Out
+	@Unit ("W/m2")
+	public GridCoverage2D outDiffuse;
+
+	@Description("The map of the radiation at the top of the atmosphere: its raster is overwritten by the following time step")
+	@Out
+	@Unit ("W/m2")
+	public GridCoverage2D outTopATM;
+
+	DateTimeFormatter formatter = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm").withZone(DateTimeZone.UTC);
+
+
+	@Execute
+	public void process() throws Exception {
+		checkNull(inDem, inSkyview, currentDate);
+
+		//get the resolution of the DEM
+		RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inDem);
+		double dx = regionMap.get(CoverageUtilities.XRES);
+
+		// transform the GrifCoverage2D maps into writable rasters
+		skyviewWR = mapsTransform(inSkyview);
+		if (inDem != preparedDem || pSectors != preparedSectors || pMaxDistance != preparedMaxDistance) {
+			prepareDem(dx);
+		}
+
+		//get the dimension of the DEM
+		int height = demWR.getHeight();
+		int width = demWR.getWidth();
+
+		DateTime date = formatter.parseDateTime(currentDate);
+
+		// the declination of the sun, the sunrise, the sunset and the sun vector, from the
+		// ephemeris shared with the point model
+		int day = date.getDayOfYear();
+		SolarEphemeris ephemeris = SolarEphemeris.forLatitude(latitude);
+		sunrise = ephemeris.sunrise(day);
+		sunset = ephemeris.sunset(day);
+		hour = ephemeris.hour(day, (double) date.getMillisOfDay() / (1000 * 60 * 60));
+		sunVector = ephemeris.sunVector(day, hour);
+
+		// E0 is the correction factor related to Earth’s orbit eccentricity computed according to Spencer (1971):
+		E0 = computeE0(date);
+
+		directWR = allocate(directWR, width, height);
+		diffuseWR = allocate(diffuseWR, width, height);
+		topATMWR = allocate(topATMWR, width, height);
+
+		if (hour > (sunrise) && hour < (sunset)) {
+
+			// the shadow index of each pixel
+			if (horizonIndex != null) {
+				sunPosition = horizonIndex.new SunPosition(sunVector);
+			} else {
+				shadowWR = calculateFactor(height, width, sunVector, calcInverseSunVector(sunVector),
+						calcNormalSunVector(sunVector), demWR, dx);
+			}
+
+			clearSky = new ClearSkyRadiation(pCmO3, pVisibility, pAlphag, doTabulatedTransmittance);
+
+			getPool().invoke(new RadiationTask(0, height));
+		} else {
+			// the night: the rasters of the previous time step are cleared
+			clear(directWR);
+			clear(diffuseWR);
+			clear(topATMWR);
+		}
+
+		outDirect = CoverageUtilities.buildCoverage("direct", directWR, regionMap, inDem.getCoordinateReferenceSystem());
+		outDiffuse = CoverageUtilities.buildCoverage("diffuse", diffuseWR, regionMap, inDem.getCoordinateReferenceSystem());
+		outTopATM = CoverageUtilities.buildCoverage("topATM", topATMWR, regionMap, inDem.getCoordinateReferenceSystem());
+	}
+
+	/**
+	 * Prepare the products of the DEM which do not change between the time steps: the normal
+	 * vectors, according to Corripio (2003), and the horizon index. They are memory-mapped from
+	 * the cache of the DEM, if there is a cache directory, otherwise they are computed.
+	 *
+	 * @param dx is the resolution of the DEM
+	 * @throws IOException
+	 */
+	private void prepareDem(double dx) throws IOException {
+		demWR = mapsTransform(inDem);
+		if (inCacheDir != null) {
+			DemCache cache = new DemCache(new File(inCacheDir), demWR, dx);
+			normals = NormalVector.normalVector(cache, demWR, dx, pThreads);
+			horizonIndex = (pSectors > 0)
+					? HorizonIndex.fromCache(cache, demWR, dx, pSectors, pMaxDistance, pThreads) : null;
+		} else {
+			normals = NormalVector.bands(new NormalVector().normalVector(demWR, dx, null, null, pThreads));
+			horizonIndex = (pSectors > 0) ? HorizonIndex.compute(demWR, dx, pSectors, pMaxDistance, pThreads) : null;
+		}
+		preparedDem = inDem;
+		preparedSectors = pSectors;
+		preparedMaxDistance = pMaxDistance;
+	}
+
+	/**
+	 * @return the raster, or a new one if it is missing or does not have the size of the DEM
+	 */
+	private WritableRaster allocate(WritableRaster raster, int width, int height) {
+		if (raster != null && raster.getWidth() == width && raster.getHeight() == height) {
+			return raster;
+		}
+		return Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_DOUBLE, width, height, 1), null);
+	}
+
+	/**
+	 * Set all the cells of a raster allocated by {@link #allocate} to 0.
+	 */
+	private static void clear(WritableRaster raster) {
+		Arrays.fill(((DataBufferDouble) raster.getDataBuffer()).getData(), 0.0);
+	}
+
+	/**
+	 * Maps reader transform the GrifCoverage2D in to the writable raster,
+	 * replace the -9999.0 value with no value.
+	 *
+	 * @param inValues: the input map values
+	 * @return the writable raster of the given map
+	 */
+	private WritableRaster mapsTransform ( GridCoverage2D inValues){
+		RenderedImage inValuesRenderedImage = inValues.getRenderedImage();
+		WritableRaster inValuesWR = CoverageUtilities.replaceNovalue(inValuesRenderedImage, -9999.0);
+		inValuesRenderedImage = null;
+		return inValuesWR;
+	}
+
+	/**
+	 * Compute the correction factor related to Earth’s orbit eccentricity.
+	 *
+	 * @param date is the current date
+	 * @return the double value of E0
+	 */
+	private double computeE0(DateTime date) {
+		// the day angle k is computed from the day of the month
+		return SolarEphemeris.eccentricity(date.getDayOfMonth());
+	}
+
+	/**
+	 * Get the pool of the threads, created at the first time step and kept by the following
+	 * ones; it is created again only if the number of threads changes.
+	 *
+	 * @return the pool of pThreads threads
+	 */
+	private ForkJoinPool getPool() {
+		int threads = Math.max(1, pThreads);
+		if (pool == null || pool.getParallelism() != threads) {
+			if (pool != null) pool.shutdown();
+			pool = new ForkJoinPool(threads);
+		}
+		return pool;
+	}
+
+	/**
+	 * Shut down the pool of the threads at the end of the simulation.
+	 */
+	@Finalize
+	public void close() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+
+	/**
+	 * The task computing the radiation on a block of rows: the block is split in two
+	 * halves until it is smaller than {@link #ROWS_PER_TASK}.
+	 */
+	private class RadiationTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final int firstRow;
+		final int lastRow;
+
+		RadiationTask(int firstRow, int lastRow) {
+			this.firstRow = firstRow;
+			this.lastRow = lastRow;
+		}
+
+		@Override
+		protected void compute() {
+			if (lastRow - firstRow > ROWS_PER_TASK) {
+				int middle = (firstRow + lastRow) >>> 1;
+				invokeAll(new RadiationTask(firstRow, middle), new RadiationTask(middle, lastRow));
+				return;
+			}
+
+			int width = demWR.getWidth();
+			DoubleBuffer normalX = normals[0];
+			DoubleBuffer normalY = normals[1];
+			DoubleBuffer normalZ = normals[2];
+			double topATM = E0 * ClearSkyRadiation.SOLARCTE * sunVector[2];
+			double[] radiation = new double[2];
+			for (int r = firstRow; r < lastRow; r++) {
+				for (int c = 0; c < width; c++) {
+					double z = demWR.getSampleDouble(c, r, 0);
+					double skyview = skyviewWR.getSampleDouble(c, r, 0);
+					if (isNovalue(z) || isNovalue(skyview)) {
+						directWR.setSample(c, r, 0, doubleNovalue);
+						diffuseWR.setSample(c, r, 0, doubleNovalue);
+						topATMWR.setSample(c, r, 0, doubleNovalue);
+						continue;
+					}
+
+					// the cosine of the incidence angle is the scalar product between the sun vector and the normal
+					int cell = r * width + c;
+					double cosIncidence = sunVector[0] * normalX.get(cell)
+							+ sunVector[1] * normalY.get(cell)
+							+ sunVector[2] * normalZ.get(cell);
+					cosIncidence = (cosIncidence < 0) ? 0 : cosIncidence;
+
+					double shadow = (horizonIndex != null)
+							? (horizonIndex.isLit(c, r, sunPosition) ? 1.0 : 0.0)
+							: shadowWR.getSampleDouble(c, r, 0);
+
+					clearSky.compute(sunVector[2], cosIncidence, shadow, skyview, z,
+							temperature, humidity, E0, radiation);
+
+					directWR.setSample(c, r, 0, Math.max(radiation[0], 0));
+					diffuseWR.setSample(c, r, 0, Math.max(radiation[1], 0));
+					topATMWR.setSample(c, r, 0, topATM);
+				}
+			}
+		}
+	}
+
+}
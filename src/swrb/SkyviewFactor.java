@@ -0,0 +1,231 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package swrb;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
+import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
+
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import oms3.annotations.Author;
+import oms3.annotations.Bibliography;
+import oms3.annotations.Description;
+import oms3.annotations.Documentation;
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.Label;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Out;
+import oms3.annotations.Status;
+import oms3.annotations.Unit;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+import org.jgrasstools.gears.libs.modules.JGTModel;
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+
+@Description("Calculate the skyview factor of each pixel of the DEM, from the horizon angles "
+		+ "in a given number of azimuth sectors")
+@Documentation("")
+@Author(name = "Marialaura Bancheri, Giuseppe Formetta, Daniele Andreis and Riccardo Rigon", contact = "maryban@hotmail.it")
+@Keywords("Hydrology, Radiation, SkyviewFactor, Hillshade")
+@Bibliography("Dozier and Frew (1990)")
+@Label(JGTConstants.HYDROGEOMORPHOLOGY)
+@Name("skyview")
+@Status(Status.CERTIFIED)
+@License("General Public License Version 3 (GPLv3)")
+public class SkyviewFactor extends JGTModel {
+
+	@Description("The map of the digital elevation model.")
+	@In
+	public GridCoverage2D inDem;
+
+	@Description("The number of azimuth sectors: more sectors give a better skyview factor, "
+			+ "the time is proportional to the sectors")
+	@In
+	public int pSectors = 16;
+
+	@Description("The maximum distance searched for the horizon: "
+			+ "the time is proportional to the distance")
+	@In
+	@Unit ("m")
+	public double pMaxDistance = Double.POSITIVE_INFINITY;
+
+	@Description("The number of threads used to compute the map")
+	@In
+	public int pThreads = Runtime.getRuntime().availableProcessors();
+
+	@Description("The directory of the cache of the products of the DEM")
+	@In
+	public String inCacheDir;
+
+	@Description("The number of rows below which a task is not split further")
+	private static final int ROWS_PER_TASK = 8;
+
+	@Description("The map of the skyview factor")
+	@Out
+	@Unit ("-")
+	public GridCoverage2D outSkyview;
+
+
+	@Execute
+	public void process() throws Exception {
+		checkNull(inDem);
+
+		// transform the GrifCoverage2D maps into writable rasters
+		WritableRaster demWR = mapsTransform(inDem);
+		RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inDem);
+		double dx = regionMap.get(CoverageUtilities.XRES);
+
+		WritableRaster skyviewWR;
+		if (inCacheDir != null) {
+			DemCache cache = new DemCache(new File(inCacheDir), demWR, dx);
+			String name = "skyview-" + pSectors + "-" + pMaxDistance;
+			DoubleBuffer[] cached = cache.getDoubles(name);
+			if (cached == null) {
+				skyviewWR = skyviewFactor(demWR, dx, pSectors, pMaxDistance, pThreads);
+				cache.putDoubles(name, skyviewWR);
+			} else {
+				skyviewWR = CoverageUtilities.createDoubleWritableRaster(demWR.getWidth(), demWR.getHeight(), null, null, 0.0);
+				double[] row = new double[demWR.getWidth()];
+				for (int r = 0; r < demWR.getHeight(); r++) {
+					cached[0].position(r * row.length);
+					cached[0].get(row);
+					skyviewWR.setSamples(0, r, row.length, 1, 0, row);
+				}
+			}
+		} else {
+			skyviewWR = skyviewFactor(demWR, dx, pSectors, pMaxDistance, pThreads);
+		}
+
+		outSkyview = CoverageUtilities.buildCoverage("skyview", skyviewWR, regionMap, inDem.getCoordinateReferenceSystem());
+	}
+
+	/**
+	 * Maps reader transform the GrifCoverage2D in to the writable raster,
+	 * replace the -9999.0 value with no value.
+	 *
+	 * @param inValues: the input map values
+	 * @return the writable raster of the given map
+	 */
+	private WritableRaster mapsTransform ( GridCoverage2D inValues){
+		RenderedImage inValuesRenderedImage = inValues.getRenderedImage();
+		WritableRaster inValuesWR = CoverageUtilities.replaceNovalue(inValuesRenderedImage, -9999.0);
+		inValuesRenderedImage = null;
+		return inValuesWR;
+	}
+
+	/**
+	 * skyviewFactor computes the skyview factor of each cell of the DEM: the horizon angle h is
+	 * searched in each sector and the skyview factor of a horizontal surface is the mean of
+	 * cos^2(h) over the sectors (Dozier and Frew (1990)).
+	 *
+	 * @param demWR is the writable raster of the DEM
+	 * @param res is the resolution of the DEM
+	 * @param sectors is the number of azimuth sectors
+	 * @param maxDistance is the maximum distance searched for the horizon
+	 * @param threads is the number of threads
+	 * @return the skyview factor of each cell
+	 */
+	public static WritableRaster skyviewFactor(WritableRaster demWR, double res, int sectors, double maxDistance,
+			int threads) {
+		if (sectors < 1) {
+			throw new IllegalArgumentException("The number of sectors must be positive");
+		}
+		WritableRaster skyviewWR = CoverageUtilities.createDoubleWritableRaster(demWR.getWidth(), demWR.getHeight(),
+				null, null, doubleNovalue);
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			pool.invoke(new SkyviewTask(demWR, res, sectors, maxDistance, skyviewWR, 0, demWR.getHeight()));
+		} finally {
+			pool.shutdown();
+		}
+		return skyviewWR;
+	}
+
+
+	/**
+	 * The task computing the skyview factor of a block of rows: the block is split in two
+	 * halves until it is smaller than {@link #ROWS_PER_TASK}.
+	 */
+	private static class SkyviewTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final WritableRaster demWR;
+		final double res;
+		final int sectors;
+		final double maxDistance;
+		final WritableRaster skyviewWR;
+		final int firstRow;
+		final int lastRow;
+
+		SkyviewTask(WritableRaster demWR, double res, int sectors, double maxDistance, WritableRaster skyviewWR,
+				int firstRow, int lastRow) {
+			this.demWR = demWR;
+			this.res = res;
+			this.sectors = sectors;
+			this.maxDistance = maxDistance;
+			this.skyviewWR = skyviewWR;
+			this.firstRow = firstRow;
+			this.lastRow = lastRow;
+		}
+
+		@Override
+		protected void compute() {
+			if (lastRow - firstRow > ROWS_PER_TASK) {
+				int middle = (firstRow + lastRow) >>> 1;
+				invokeAll(new SkyviewTask(demWR, res, sectors, maxDistance, skyviewWR, firstRow, middle),
+						new SkyviewTask(demWR, res, sectors, maxDistance, skyviewWR, middle, lastRow));
+				return;
+			}
+
+			double[] dx = new double[sectors];
+			double[] dy = new double[sectors];
+			for (int s = 0; s < sectors; s++) {
+				dx[s] = Math.cos(2 * Math.PI * s / sectors);
+				dy[s] = Math.sin(2 * Math.PI * s / sectors);
+			}
+
+			for (int r = firstRow; r < lastRow; r++) {
+				for (int c = 0; c < demWR.getWidth(); c++) {
+					if (isNovalue(demWR.getSampleDouble(c, r, 0))) {
+						continue;
+					}
+					double sum = 0;
+					for (int s = 0; s < sectors; s++) {
+						double cos = Math.cos(HorizonIndex.horizonAngle(demWR, c, r, dx[s], dy[s], res, maxDistance));
+						sum += cos * cos;
+					}
+					skyviewWR.setSample(c, r, 0, sum / sectors);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package swrb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The solar ephemeris: the declination of the sun and the correction of the Earth's orbit
+ * eccentricity for each day of the year, and the sunrise, the sunset and the position of the
+ * sun for each day at a given latitude.
+ * <p>
+ * The values are computed once with the same formulas used by the radiation components and
+ * kept in flat arrays indexed by the day number (1 to 366). The tables are never modified
+ * after their construction, so they can be read by many threads at the same time.
+ */
+public final class SolarEphemeris {
+
+	/** The number of days in a leap year */
+	public static final int DAYS = 366;
+
+	/** The declination of the sun [rad] for each day of the year */
+	private static final double[] DECLINATION = new double[DAYS + 1];
+
+	/** The correction factor of the Earth's orbit eccentricity for each day number */
+	private static final double[] ECCENTRICITY = new double[DAYS + 1];
+
+	/** The ephemeris already computed, by latitude */
+	private static final ConcurrentMap<Double, SolarEphemeris> CACHE = new ConcurrentHashMap<Double, SolarEphemeris>();
+
+	static {
+		for (int day = 1; day <= DAYS; day++) {
+
+			// (360 / 365.25) * (day - 79.436) is the number of the day
+			double dayangb = Math.toRadians((360 / 365.25) * (day - 79.436));
+
+			// Evaluate the declination of the sun.
+			DECLINATION[day] = Math.toRadians(.3723 + 23.2567 * Math.sin(dayangb) - .758
+					* Math.cos(dayangb) + .1149 * Math.sin(2 * dayangb) + .3656
+					* Math.cos(2 * dayangb) - .1712 * Math.sin(3 * dayangb) + .0201
+					* Math.cos(3 * dayangb));
+
+			// k is the day angle in radiant, E0 is computed according to Spencer (1971)
+			double k = 2 * Math.PI * (day - 1.0) / 365.0;
+			ECCENTRICITY[day] = 1.00011 + 0.034221 * Math.cos(k) + 0.00128
+					* Math.sin(k) + 0.000719 * Math.cos(2 * k) + 0.000077
+					* Math.sin(2 * k);
+		}
+	}
+
+	/** The latitude [rad] */
+	final double latitude;
+
+	/** The hour of the sunrise for each day of the year */
+	private final double[] sunrise = new double[DAYS + 1];
+
+	/** The hour of the sunset for each day of the year */
+	private final double[] sunset = new double[DAYS + 1];
+
+
+	private SolarEphemeris(double latitude) {
+		this.latitude = latitude;
+		for (int day = 1; day <= DAYS; day++) {
+
+			// ss is the absolute value of the hour angle at sunrise or sunset
+			double ss = Math.acos(-Math.tan(DECLINATION[day]) * Math.tan(latitude));
+			sunrise[day] = 12 * (1.0 - ss / Math.PI);
+			sunset[day] = 12 * (1.0 + ss / Math.PI);
+		}
+	}
+
+	/**
+	 * Get the ephemeris of a latitude, computing it the first time the latitude is asked.
+	 *
+	 * @param latitude is the latitude [rad]
+	 * @return the ephemeris of the latitude
+	 */
+	public static SolarEphemeris forLatitude(double latitude) {
+		Double key = latitude;
+		SolarEphemeris ephemeris = CACHE.get(key);
+		if (ephemeris == null) {
+			ephemeris = new SolarEphemeris(latitude);
+			SolarEphemeris previous = CACHE.putIfAbsent(key, ephemeris);
+			if (previous != null) {
+				ephemeris = previous;
+			}
+		}
+		return ephemeris;
+	}
+
+	/**
+	 * @param day is the day of the year
+	 * @return the declination of the sun [rad]
+	 */
+	public static double declination(int day) {
+		return DECLINATION[day];
+	}
+
+	/**
+	 * @param day is the day number used in the Spencer (1971) day angle
+	 * @return the correction factor of the Earth's orbit eccentricity E0
+	 */
+	public static double eccentricity(int day) {
+		return ECCENTRICITY[day];
+	}
+
+	/**
+	 * @return the latitude of the ephemeris [rad]
+	 */
+	public double getLatitude() {
+		return latitude;
+	}
+
+	/**
+	 * @param day is the day of the year
+	 * @return the hour of the sunrise
+	 */
+	public double sunrise(int day) {
+		return sunrise[day];
+	}
+
+	/**
+	 * @param day is the day of the year
+	 * @return the hour of the sunset
+	 */
+	public double sunset(int day) {
+		return sunset[day];
+	}
+
+	/**
+	 * Move an hour away from the sunrise and the sunset, where the sun is on the horizon: an
+	 * hour of the day less than 0.01 h after the sunrise or before the sunset is moved 0.1 h
+	 * inside the day, as the radiation components have always done.
+	 *
+	 * @param day is the day of the year
+	 * @param hour is the hour of the day, in hours and decimal fraction
+	 * @return the hour used for the position of the sun
+	 */
+	public double hour(int day, double hour) {
+		if (hour > sunrise[day] && hour < sunset[day] && (hour - sunrise[day]) < 0.01) hour = hour + 0.1;
+		if (hour > sunrise[day] && hour < sunset[day] && (sunset[day] - hour) < 0.01) hour = hour - 0.1;
+		return hour;
+	}
+
+	/**
+	 * @param hour is the hour of the day, in hours and decimal fraction
+	 * @return the hour angle [rad], zero at noon
+	 */
+	public static double hourAngle(double hour) {
+		return (hour / 12.0 - 1.0) * Math.PI;
+	}
+
+	/**
+	 * @param day is the day of the year
+	 * @param hour is the hour of the day, in hours and decimal fraction
+	 * @return the cosine of the zenith angle of the sun, the third component of the sun vector
+	 */
+	public double cosZenith(int day, double hour) {
+		double hourAngle = hourAngle(hour);
+		double delta = DECLINATION[day];
+		return Math.cos(latitude) * Math.cos(hourAngle) * Math.cos(delta) + Math.sin(latitude) * Math.sin(delta);
+	}
+
+	/**
+	 * Compute the unit vector in the direction of the sun (Corripio (2003)), x towards the east,
+	 * y towards the south and z towards the zenith.
+	 *
+	 * @param day is the day of the year
+	 * @param hour is the hour of the day, in hours and decimal fraction
+	 * @return the sun vector
+	 */
+	public double[] sunVector(int day, double hour) {
+		double hourAngle = hourAngle(hour);
+		double delta = DECLINATION[day];
+		double sunVector[] = new double[3];
+		sunVector[0] = -Math.sin(hourAngle) * Math.cos(delta);
+		sunVector[1] = Math.sin(latitude) * Math.cos(hourAngle) * Math.cos(delta)
+				- Math.cos(latitude) * Math.sin(delta);
+		sunVector[2] = cosZenith(day, hour);
+		return sunVector;
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package swrb;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The transmittance functions of {@link ClearSkyRadiation} depending only on the air mass
+ * (Rayleigh, mixed gases, aerosols, aerosol absorbance, ozone and the 1 - m + m^1.02 term),
+ * tabulated for a given ozone thickness and visibility and linearly interpolated.
+ * <p>
+ * The grid is uniform in ln(m) with {@link #INTERVALS} intervals between {@link #MIN_AIR_MASS}
+ * and {@link #MAX_AIR_MASS}, that is from the sun at the zenith at 9000 m to the sun about 2
+ * degrees above the horizon at the sea level; the lower suns, where the Rayleigh
+ * transmittance of the model exceeds 1, are left to the exact functions. The values of a grid
+ * point are contiguous, so an interpolation reads one or two cache lines.
+ * <p>
+ * The error against the exact functions, for 0.2 &lt; pCmO3 &lt; 0.8 cm and
+ * 5 &lt; pVisibility &lt; 180 km, is below 4e-6 for each transmittance, which gives a relative
+ * error below 5e-6 on the direct and the diffuse radiation larger than 1 W/m2: far below the
+ * uncertainty of the model.
+ * <p>
+ * The tables are never modified after their construction and are shared by all the
+ * models with the same parameters.
+ */
+final class TransmittanceTable {
+
+	/** The number of intervals of the grid */
+	static final int INTERVALS = 4096;
+
+	/** The smallest air mass of the grid */
+	static final double MIN_AIR_MASS = 0.25;
+
+	/** The largest air mass of the grid */
+	static final double MAX_AIR_MASS = 32;
+
+	/** The offsets of the functions in the values of a grid point */
+	static final int TAU_R = 0, TAU_G = 1, TAU_A = 2, TAU_AA = 3, Q = 4, TAU_O = 5;
+
+	/** The number of functions */
+	private static final int STRIDE = 6;
+
+	private static final double LN_MIN = Math.log(MIN_AIR_MASS);
+
+	/** The number of intervals in a unit of ln(m) */
+	private static final double SCALE = INTERVALS / (Math.log(MAX_AIR_MASS) - LN_MIN);
+
+	/** The tables already computed, by ozone thickness and visibility */
+	private static final ConcurrentMap<List<Double>, TransmittanceTable> CACHE = new ConcurrentHashMap<List<Double>, TransmittanceTable>();
+
+	/** The values of the functions, grid point after grid point */
+	final double[] values = new double[(INTERVALS + 1) * STRIDE];
+
+
+	private TransmittanceTable(double pCmO3, double pVisibility) {
+		for (int i = 0; i <= INTERVALS; i++) {
+			double m = Math.exp(LN_MIN + i / SCALE);
+			double tau_a = ClearSkyRadiation.tauA(m, pVisibility);
+			values[i * STRIDE + TAU_R] = ClearSkyRadiation.tauR(m);
+			values[i * STRIDE + TAU_G] = ClearSkyRadiation.tauG(m);
+			values[i * STRIDE + TAU_A] = tau_a;
+			values[i * STRIDE + TAU_AA] = ClearSkyRadiation.tauAA(m, tau_a);
+			values[i * STRIDE + Q] = ClearSkyRadiation.q(m);
+			values[i * STRIDE + TAU_O] = ClearSkyRadiation.tauO(m, pCmO3);
+		}
+	}
+
+	/**
+	 * Get the table of the given parameters, computing it the first time it is asked.
+	 *
+	 * @param pCmO3 is the ozone layer thickness in cm
+	 * @param pVisibility is the visibility [km]
+	 * @return the table
+	 */
+	static TransmittanceTable forParameters(double pCmO3, double pVisibility) {
+		List<Double> key = Arrays.asList(pCmO3, pVisibility);
+		TransmittanceTable table = CACHE.get(key);
+		if (table == null) {
+			table = new TransmittanceTable(pCmO3, pVisibility);
+			TransmittanceTable previous = CACHE.putIfAbsent(key, table);
+			if (previous != null) {
+				table = previous;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * @param m is the air mass
+	 * @return the position of the air mass in the grid, in [0, {@link #INTERVALS}) if it
+	 *         is in the table
+	 */
+	double position(double m) {
+		return (Math.log(m) - LN_MIN) * SCALE;
+	}
+
+	/**
+	 * @param i is the interval
+	 * @param fraction is the position inside the interval, in [0, 1)
+	 * @param function is the offset of the function
+	 * @return the interpolated value of the function
+	 */
+	double interpolate(int i, double fraction, int function) {
+		double a = values[i * STRIDE + function];
+		return a + fraction * (values[(i + 1) * STRIDE + function] - a);
+	}
+
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lwrb;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@link LongwaveKernels} written with the Vector API: the arrays are processed in
+ * vectors of the preferred width of the processor and the tails with the scalar kernels.
+ * <p>
+ * This class needs JDK 17 or later and the incubator module: it is in its own source folder,
+ * compiled with <code>javac --release 17 --add-modules jdk.incubator.vector</code> against
+ * the classes of src, and it is only loaded by reflection from
+ * {@link LongwaveKernels#getInstance()}, so the other classes still run on Java 8.
+ */
+public class VectorLongwaveKernels extends ScalarLongwaveKernels {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	public VectorLongwaveKernels() {
+		if (SPECIES.length() < 2) {
+			throw new UnsupportedOperationException("No vector registers");
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "vector" + SPECIES.vectorBitSize();
+	}
+
+	@Override
+	public void upwelling(double[] epsilonS, double[] soilTemperature, double[] upwelling, int from, int to) {
+		int i = from;
+		for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+			DoubleVector t = DoubleVector.fromArray(SPECIES, soilTemperature, i).add(273.15);
+			DoubleVector t2 = t.mul(t);
+			DoubleVector.fromArray(SPECIES, epsilonS, i).mul(ConstBoltz).mul(t2.mul(t2)).intoArray(upwelling, i);
+		}
+		super.upwelling(epsilonS, soilTemperature, upwelling, i, to);
+	}
+
+	@Override
+	public void vapourPressure(double[] airTemperature, double[] humidity, double[] e, int from, int to) {
+		int i = from;
+		for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+			DoubleVector t = DoubleVector.fromArray(SPECIES, airTemperature, i);
+			DoubleVector power = t.mul(LN10 * 7.5).div(t.add(237.3)).lanewise(VectorOperators.EXP);
+			DoubleVector.fromArray(SPECIES, humidity, i).mul(0.611).mul(power).intoArray(e, i);
+		}
+		super.vapourPressure(airTemperature, humidity, e, i, to);
+	}
+
+	@Override
+	public void emissivity(ClearSkyEmissivity model, double[] airTemperature, double[] e, double[] epsilon, int from,
+			int to) {
+		double X = model.X, Y = model.Y, Z = model.Z;
+		int i = from;
+		int bound = from + SPECIES.loopBound(to - from);
+		switch (model.model) {
+		case "1":
+			for (; i < bound; i += SPECIES.length()) {
+				DoubleVector.fromArray(SPECIES, e, i).lanewise(VectorOperators.SQRT).mul(Y).add(X).intoArray(epsilon, i);
+			}
+			break;
+		case "2":
+			double y2 = Y * 1e-4;
+			for (; i < bound; i += SPECIES.length()) {
+				DoubleVector d = DoubleVector.fromArray(SPECIES, airTemperature, i).add(273.15).neg().add(273);
+				d.mul(y2).mul(d).lanewise(VectorOperators.EXP).mul(-X).add(1.0).intoArray(epsilon, i);
+			}
+			break;
+		case "3":
+			double y3 = Y * 1e-4;
+			for (; i < bound; i += SPECIES.length()) {
+				DoubleVector t = DoubleVector.fromArray(SPECIES, airTemperature, i).add(273.15);
+				DoubleVector exp = DoubleVector.broadcast(SPECIES, 1500).div(t).lanewise(VectorOperators.EXP);
+				DoubleVector.fromArray(SPECIES, e, i).mul(y3).mul(exp).add(X).intoArray(epsilon, i);
+			}
+			break;
+		case "4":
+			for (; i < bound; i += SPECIES.length()) {
+				DoubleVector t = DoubleVector.fromArray(SPECIES, airTemperature, i).add(273.15);
+				DoubleVector t2 = t.mul(t);
+				DoubleVector.broadcast(SPECIES, X).div(t2.mul(t2).mul(ConstBoltz)).add(Y).intoArray(epsilon, i);
+			}
+			break;
+		case "5":
+			for (; i < bound; i += SPECIES.length()) {
+				DoubleVector t = DoubleVector.fromArray(SPECIES, airTemperature, i).add(273.15);
+				DoubleVector r = t.div(273.16);
+				DoubleVector r3 = r.mul(r).mul(r);
+				DoubleVector t2 = t.mul(t);
+				DoubleVector w = DoubleVector.fromArray(SPECIES, e, i).mul(4650).div(t).div(25);
+				w.lanewise(VectorOperators.SQRT).mul(Z).add(r3.mul(r3).mul(Y)).add(X)
+						.div(t2.mul(t2).mul(ConstBoltz)).intoArray(epsilon, i);
+			}
+			break;
+		default:
+			break;
+		}
+		super.emissivity(model, airTemperature, e, epsilon, i, to);
+	}
+
+	@Override
+	public void downwelling(double[] epsilonCS, double[] airTemperature, double[] clearnessIndex, double[] skyview,
+			double[] upwelling, double A_Cloud, double B_Cloud, double[] downwelling, int from, int to) {
+		int i = from;
+		for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+			DoubleVector t = DoubleVector.fromArray(SPECIES, airTemperature, i).add(273.15);
+			DoubleVector t2 = t.mul(t);
+			DoubleVector sv = DoubleVector.fromArray(SPECIES, skyview, i);
+			DoubleVector downwellingCS = DoubleVector.fromArray(SPECIES, epsilonCS, i).mul(ConstBoltz).mul(t2.mul(t2))
+					.mul(sv).add(DoubleVector.fromArray(SPECIES, upwelling, i).mul(sv.neg().add(1)));
+			DoubleVector cloud = DoubleVector.fromArray(SPECIES, clearnessIndex, i).neg().add(1)
+					.lanewise(VectorOperators.POW, B_Cloud).mul(A_Cloud).add(1);
+			downwellingCS.mul(cloud).intoArray(downwelling, i);
+		}
+		super.downwelling(epsilonCS, airTemperature, clearnessIndex, skyview, upwelling, A_Cloud, B_Cloud,
+				downwelling, i, to);
+	}
+
+}